@@ -1,62 +1,1344 @@
 #include <jni.h>
 #include <string>
+#include <cstring>
 #include <unistd.h>
-#include <android/log.h>
+#include <malloc.h>
 #include <assert.h>
+#include <cstdio>
+#include <atomic>
+#include <memory>
+#include <mutex>
+#include <shared_mutex>
+#include <unordered_map>
+#include <time.h>
+
+#ifdef __ANDROID__
+#include <android/log.h>
+#include <android/asset_manager.h>
+#include <android/asset_manager_jni.h>
+
+#define LOG_WARN(...) __android_log_print(ANDROID_LOG_WARN, "musicgap", __VA_ARGS__)
+#else
+// desktop builds, for running the bridge in host unit tests.
+#define LOG_WARN(...) (fprintf(stderr, "musicgap: " __VA_ARGS__), fputc('\n', stderr))
+#endif
 
 #include "fluidsynth.h"
 
-fluid_settings_t *settings;
-fluid_synth_t *synth;
-fluid_audio_driver_t *audioDriver;
+// must match FluidSynth.AudioConfig.Profile in the Java class.
+const int PROFILE_LOW_LATENCY = 0;
+const int PROFILE_POWER_SAVING = 1;
+const int PROFILE_COMPATIBILITY = 2;
+
+// must match FluidSynth.AUDIO_INFO_* in the Java class.
+const int AUDIO_INFO_PROFILE = 0;
+const int AUDIO_INFO_PERIOD_SIZE = 1;
+const int AUDIO_INFO_PERIODS = 2;
+const int AUDIO_INFO_SAMPLE_RATE = 3;
+const int AUDIO_INFO_UNDERRUNS = 4;
+const int AUDIO_INFO_SIZE = 5;
+
+// must match FluidSynth.MEMORY_INFO_* in the Java class.
+const int MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL = 0;
+const int MEMORY_INFO_NATIVE_HEAP_BYTES = 1;
+const int MEMORY_INFO_SIZE = 2;
+
+// must match FluidSynth.STATS_* in the Java class.
+const int STATS_CPU_LOAD_PERMILLE = 0;
+const int STATS_ACTIVE_VOICES = 1;
+const int STATS_POLYPHONY = 2;
+const int STATS_UNDERRUNS = 3;
+const int STATS_SOUND_FONT_BYTES_READ_TOTAL = 4;
+const int STATS_NATIVE_HEAP_BYTES = 5;
+const int STATS_SIZE = 6;
+
+// must match FluidSynth.EVENT_* in the Java class.
+const int EVENT_NOTE_ON = 0;
+const int EVENT_NOTE_OFF = 1;
+const int EVENT_SIZE = 4;
+
+const int RENDER_BLOCK_FRAMES = 64;
+
+// must match EventRing.* in the Java class.
+const int RING_WRITE_INDEX_OFFSET = 0;
+const int RING_CANCEL_INDEX_OFFSET = 4;
+const int RING_CANCEL_CUT_SOUND_OFFSET = 8;
+const int RING_CANCEL_SEQUENCE_OFFSET = 12;
+const int RING_READ_INDEX_OFFSET = 64;
+const int RING_SLOTS_OFFSET = 128;
+const int RING_SLOT_OFFSET_MS_OFFSET = 0;
+const int RING_SLOT_FLAGS_OFFSET = 4;
+const int RING_SLOT_EVENT_OFFSET = 8;
+const int RING_SLOT_BYTES = RING_SLOT_EVENT_OFFSET + 4 * EVENT_SIZE;
+const int RING_FLAG_ONSET = 1;
+const int RING_FLAG_BATCH_START = 2;
+
+// must match FluidSynth.EXPORT_TYPE_* in the Java class, and index the libsndfile type names below.
+const int EXPORT_TYPE_WAV = 0;
+const int EXPORT_TYPE_FLAC = 1;
+const int EXPORT_TYPE_OGG = 2;
+const char *const EXPORT_TYPE_NAMES[] = {"wav", "flac", "oga"};
+
+// One synth behind a Java handle. A live synth plays through an audio driver and a sequencer, while a
+// renderer has neither and is only driven by renderEvents.
+//
+// The synth and sequencer APIs are thread-safe by themselves, so most calls only hold lock shared and
+// several threads can drive one synth. Calls that load soundfonts, render, or close hold it
+// exclusively. close marks the synth closed, so a call that raced it fails instead of touching freed
+// state.
+//
+// Opening or closing the audio stream can take tens of ms, so pause and resume do that under
+// driverLock alone and only hold lock briefly around what the other calls see. close takes driverLock
+// first as well.
+struct Synth {
+    std::shared_mutex lock;
+    std::mutex driverLock;
+    bool closed = false;
+
+    fluid_settings_t *settings = NULL;
+    fluid_synth_t *synth = NULL;
+    bool assetLoaderAdded = false;
+    bool fileLoaderAdded = false;
+
+    // soundfont bytes read by this synth's sfload calls, summed over all of them. It never goes down, and
+    // says nothing about how much sample data is still resident once dynamic sample loading unloads some.
+    std::atomic<int64_t> soundFontBytesReadTotal{0};
+
+    // only set on a renderer while an export is open.
+    fluid_file_renderer_t *fileRenderer = NULL;
+
+    // the rest is only used by live synths.
+    fluid_audio_driver_t *audioDriver = NULL;
+    fluid_sequencer_t *sequencer = NULL;
+    fluid_seq_id_t synthSeqId = -1;
+
+    // the MIDI file player of the last playMidi call, timed by the synth's own sample clock.
+    fluid_player_t *player = NULL;
+
+    int requestedProfile = PROFILE_COMPATIBILITY;
+    int requestedPeriodSize = 0;
+    int requestedPeriods = 0;
+    std::atomic<int> audioProfile{PROFILE_COMPATIBILITY};
+
+    fluid_seq_id_t audioClockSeqId = -1;
+    fluid_event_t *audioClockEvent = NULL;
+    unsigned int audioClockStartTick = 0;
+    int64_t audioClockStartNanos = 0;
+    int64_t audioClockBaselineLagNanos = 0;
+    std::atomic<int64_t> audioBufferNanos{0};
+    // set while the driver is replaced, so the first block of the new one re-baselines the clock instead
+    // of counting the time the stream took to open as an underrun.
+    std::atomic<bool> audioClockRebasePending{false};
+    std::atomic<int> underruns{0};
+
+    // CLOCK_MONOTONIC time at which the first note of the last scheduleEvents call, or the last
+    // RING_FLAG_ONSET event, reached the speaker.
+    fluid_seq_id_t onsetMarkerSeqId = -1;
+    std::atomic<int64_t> lastOnsetNanos{0};
+
+    // the EventRing drained by the audio clock. Set once, and kept alive until the synth is closed.
+    jobject eventRingRef = NULL;
+    std::atomic<uint8_t *> eventRing{NULL};
+    jint eventRingMask = 0;
+    jint eventRingCancelSequence = 0;
+
+    // the sequencer tick of the block in which the drain reached the first event of the current batch.
+    // eventRingBatchTickSet keeps it from moving while that first event waits, and is cleared as soon
+    // as the read index moves on.
+    unsigned int eventRingBatchTick = 0;
+    bool eventRingBatchTickSet = false;
+};
+
+// handles are never reused, so a stale handle can't reach a newer synth.
+std::mutex registryLock;
+std::unordered_map<jlong, std::shared_ptr<Synth>> registry;
+jlong nextHandle = 1;
+
+// the sfloader callbacks take no user data either, so the synth a soundfont is loaded into is kept per
+// thread for the duration of the load, see SoundFontLoad.
+thread_local Synth *loadingSynth = NULL;
+
+#ifdef __ANDROID__
+// the sfloader callbacks take no user data, so the asset manager is shared by all synths.
+std::mutex assetManagerLock;
+jobject assetManagerRef;
+AAssetManager *assetManager;
+#endif
+
+static jlong registerSynth(const std::shared_ptr<Synth> &instance) {
+    std::lock_guard<std::mutex> guard(registryLock);
+    jlong handle = nextHandle++;
+    registry[handle] = instance;
+    return handle;
+}
+
+static std::shared_ptr<Synth> findSynth(jlong handle) {
+    std::lock_guard<std::mutex> guard(registryLock);
+    auto found = registry.find(handle);
+    return found != registry.end() ? found->second : nullptr;
+}
+
+static std::shared_ptr<Synth> unregisterSynth(jlong handle) {
+    std::lock_guard<std::mutex> guard(registryLock);
+    auto found = registry.find(handle);
+    if (found == registry.end()) return nullptr;
+
+    std::shared_ptr<Synth> result = found->second;
+    registry.erase(found);
+    return result;
+}
+
+// looks the handle up and holds its lock for the scope. get() is NULL if the handle is unknown or closed.
+template<typename Lock>
+struct LockedSynth {
+    std::shared_ptr<Synth> instance;
+    Lock guard;
+
+    LockedSynth(jlong handle) : instance(findSynth(handle)) {
+        if (instance != nullptr) guard = Lock(instance->lock);
+    }
+
+    Synth *get() {
+        return instance != nullptr && !instance->closed ? instance.get() : NULL;
+    }
+};
+
+typedef LockedSynth<std::shared_lock<std::shared_mutex>> SharedSynth;
+typedef LockedSynth<std::unique_lock<std::shared_mutex>> ExclusiveSynth;
+
+// looks the handle up and holds its driverLock for the scope, see Synth. get() is NULL if the handle is
+// unknown or closed.
+struct DriverSynth {
+    std::shared_ptr<Synth> instance;
+    std::unique_lock<std::mutex> guard;
+
+    DriverSynth(jlong handle) : instance(findSynth(handle)) {
+        if (instance != nullptr) guard = std::unique_lock<std::mutex>(instance->driverLock);
+    }
+
+    Synth *get() {
+        return instance != nullptr && !instance->closed ? instance.get() : NULL;
+    }
+};
+
+static int applyEvent(fluid_synth_t *synth, int type, int channel, int key, int velocity) {
+    switch (type) {
+        case EVENT_NOTE_ON:
+            return fluid_synth_noteon(synth, channel, key, velocity);
+        case EVENT_NOTE_OFF:
+            return fluid_synth_noteoff(synth, channel, key);
+        default:
+            return FLUID_FAILED;
+    }
+}
+
+static int applyEvents(fluid_synth_t *synth, const jint *events, jint count) {
+    int result = FLUID_OK;
+    for (jint i = 0; i < count; i++) {
+        const jint *event = events + i * EVENT_SIZE;
+        if (applyEvent(synth, event[0], event[1], event[2], event[3]) != FLUID_OK) {
+            result = FLUID_FAILED;
+        }
+    }
+    return result;
+}
+
+static int64_t monotonicNanos() {
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return (int64_t) now.tv_sec * 1000000000 + now.tv_nsec;
+}
+
+static void applyAudioProfile(fluid_settings_t *settings, int profile, int periodSize, int periods) {
+#ifdef __ANDROID__
+    switch (profile) {
+        case PROFILE_LOW_LATENCY:
+            fluid_settings_setstr(settings, "audio.oboe.sharing-mode", "Exclusive");
+            fluid_settings_setstr(settings, "audio.oboe.performance-mode", "LowLatency");
+            fluid_settings_setstr(settings, "audio.oboe.sample-rate-conversion-quality", "Fastest");
+            break;
+        case PROFILE_POWER_SAVING:
+            fluid_settings_setstr(settings, "audio.oboe.sharing-mode", "Shared");
+            fluid_settings_setstr(settings, "audio.oboe.performance-mode", "PowerSaving");
+            fluid_settings_setstr(settings, "audio.oboe.sample-rate-conversion-quality", "Medium");
+            break;
+        default:
+            fluid_settings_setstr(settings, "audio.oboe.sharing-mode", "Shared");
+            fluid_settings_setstr(settings, "audio.oboe.performance-mode", "None");
+            break;
+    }
+#else
+    // a build box has no audio device. The file driver still renders in real time, so the sequencer
+    // and the audio clock behave as they do on a device.
+    fluid_settings_setstr(settings, "audio.driver", "file");
+    fluid_settings_setstr(settings, "audio.file.name", "/dev/null");
+    fluid_settings_setstr(settings, "audio.file.type", "raw");
+#endif
+
+    if (periodSize > 0) fluid_settings_setint(settings, "audio.period-size", periodSize);
+    if (periods > 0) fluid_settings_setint(settings, "audio.periods", periods);
+}
+
+static fluid_audio_driver_t *createAudioDriver(Synth *s, int profile, int periodSize, int periods) {
+    s->requestedProfile = profile;
+    s->requestedPeriodSize = periodSize;
+    s->requestedPeriods = periods;
+
+    applyAudioProfile(s->settings, profile, periodSize, periods);
+    s->audioProfile = profile;
+
+    fluid_audio_driver_t *driver = new_fluid_audio_driver(s->settings, s->synth);
+    // Oboe mostly falls back to shared on its own, and the driver doesn't say which mode it got, so
+    // this only catches devices that fail the exclusive stream outright.
+    if (driver == NULL && profile == PROFILE_LOW_LATENCY) {
+        LOG_WARN("exclusive audio refused, retrying shared");
+        fluid_settings_setstr(s->settings, "audio.oboe.sharing-mode", "Shared");
+        driver = new_fluid_audio_driver(s->settings, s->synth);
+    }
+
+    if (driver == NULL && profile != PROFILE_COMPATIBILITY) {
+        LOG_WARN("audio profile %d refused, using compatibility", profile);
+        applyAudioProfile(s->settings, PROFILE_COMPATIBILITY, 0, 0);
+        s->audioProfile = PROFILE_COMPATIBILITY;
+        driver = new_fluid_audio_driver(s->settings, s->synth);
+    }
+
+    return driver;
+}
+
+static jint *ringInt(uint8_t *ring, int offset) {
+    return (jint *) (ring + offset);
+}
+
+// runs on the audio thread at the start of the block at sequencer tick now. Applies the ring's events
+// that are due by then, in order, and frees their slots.
+//
+// A batch starts in the block that reaches its first event, and its offsets are counted in ticks from
+// there. The ticks follow the rendered samples, so a batch keeps its spacing even when the device
+// renders several blocks back to back in one callback.
+static void drainEventRing(Synth *s, unsigned int now) {
+    uint8_t *ring = s->eventRing.load(std::memory_order_acquire);
+    if (ring == NULL) return;
+
+    // the write index goes first. A cancel published before the events it sees is then seen as well,
+    // so a cancel can't drop or cut the notes of the playback that follows it.
+    // the indices wrap around like Java ints, so they are compared as unsigned distances.
+    uint32_t writeIndex = (uint32_t) __atomic_load_n(ringInt(ring, RING_WRITE_INDEX_OFFSET), __ATOMIC_ACQUIRE);
+    jint cancelSequence = __atomic_load_n(ringInt(ring, RING_CANCEL_SEQUENCE_OFFSET), __ATOMIC_ACQUIRE);
+    uint32_t readIndex = (uint32_t) *ringInt(ring, RING_READ_INDEX_OFFSET);
+
+    if (cancelSequence != s->eventRingCancelSequence) {
+        s->eventRingCancelSequence = cancelSequence;
+
+        uint32_t cancelIndex = (uint32_t) *ringInt(ring, RING_CANCEL_INDEX_OFFSET);
+        if ((int32_t) (cancelIndex - readIndex) > 0) {
+            readIndex = cancelIndex;
+            s->eventRingBatchTickSet = false;
+        }
+
+        if (*ringInt(ring, RING_CANCEL_CUT_SOUND_OFFSET)) {
+            fluid_synth_all_sounds_off(s->synth, -1);
+        } else {
+            fluid_synth_all_notes_off(s->synth, -1);
+        }
+    }
+
+    while ((int32_t) (writeIndex - readIndex) > 0) {
+        uint8_t *slot = ring + RING_SLOTS_OFFSET + (readIndex & s->eventRingMask) * RING_SLOT_BYTES;
+        jint flags = *ringInt(slot, RING_SLOT_FLAGS_OFFSET);
+
+        if ((flags & RING_FLAG_BATCH_START) && !s->eventRingBatchTickSet) {
+            s->eventRingBatchTick = now;
+            s->eventRingBatchTickSet = true;
+        }
+
+        // one tick is one ms, as in scheduleEvents.
+        if ((int32_t) (now - s->eventRingBatchTick) < *ringInt(slot, RING_SLOT_OFFSET_MS_OFFSET)) break;
+
+        const jint *event = ringInt(slot, RING_SLOT_EVENT_OFFSET);
+        applyEvent(s->synth, event[0], event[1], event[2], event[3]);
+        if (flags & RING_FLAG_ONSET) {
+            s->lastOnsetNanos = monotonicNanos() + s->audioBufferNanos;
+        }
+
+        readIndex++;
+        s->eventRingBatchTickSet = false;
+    }
+
+    __atomic_store_n(ringInt(ring, RING_READ_INDEX_OFFSET), (jint) readIndex, __ATOMIC_RELEASE);
+}
+
+// frees every slot of the ring without applying it, and forgets the cancels that came before. Only
+// called while no audio driver is rendering, so nothing else consumes the ring.
+static void skipEventRing(Synth *s) {
+    uint8_t *ring = s->eventRing.load(std::memory_order_acquire);
+    if (ring == NULL) return;
+
+    jint writeIndex = __atomic_load_n(ringInt(ring, RING_WRITE_INDEX_OFFSET), __ATOMIC_ACQUIRE);
+    s->eventRingCancelSequence = __atomic_load_n(ringInt(ring, RING_CANCEL_SEQUENCE_OFFSET), __ATOMIC_ACQUIRE);
+    s->eventRingBatchTickSet = false;
+    __atomic_store_n(ringInt(ring, RING_READ_INDEX_OFFSET), writeIndex, __ATOMIC_RELEASE);
+}
+
+// the device buffer of the driver that was created last.
+static void updateAudioBufferNanos(Synth *s) {
+    int periodSize, periods;
+    double sampleRate;
+    fluid_settings_getint(s->settings, "audio.period-size", &periodSize);
+    fluid_settings_getint(s->settings, "audio.periods", &periods);
+    fluid_settings_getnum(s->settings, "synth.sample-rate", &sampleRate);
+
+    s->audioBufferNanos = (int64_t) (periodSize * periods * 1e9 / sampleRate);
+}
+
+// the lag is measured from here on. Only called on the audio thread, or before the clock is started.
+static void rebaseAudioClock(Synth *s, unsigned int tick) {
+    s->audioClockStartTick = tick;
+    s->audioClockStartNanos = monotonicNanos();
+    s->audioClockBaselineLagNanos = 0;
+}
+
+// runs on the audio thread once per rendered block. The sequencer tick counts rendered audio, so if
+// the wall clock runs ahead of it by more than the whole device buffer, the device must have played
+// silence in between.
+static void audioClockCallback(unsigned int time, fluid_event_t *event, fluid_sequencer_t *seq, void *data) {
+    // also called once when the sequencer is deleted, which must not reschedule.
+    if (fluid_event_get_type(event) == FLUID_SEQ_UNREGISTERING) return;
+
+    Synth *s = (Synth *) data;
+    drainEventRing(s, time);
+
+    if (s->audioClockRebasePending.exchange(false)) {
+        rebaseAudioClock(s, time);
+    } else {
+        int64_t wallNanos = monotonicNanos() - s->audioClockStartNanos;
+        int64_t renderedNanos = (int64_t) (time - s->audioClockStartTick) * 1000000;
+        int64_t lagNanos = wallNanos - renderedNanos;
+
+        if (lagNanos < s->audioClockBaselineLagNanos) {
+            s->audioClockBaselineLagNanos = lagNanos;
+        } else if (lagNanos - s->audioClockBaselineLagNanos > s->audioBufferNanos) {
+            s->underruns++;
+            s->audioClockBaselineLagNanos = lagNanos;
+        }
+    }
+
+    fluid_sequencer_send_at(seq, s->audioClockEvent, time + 1, 1);
+}
+
+// runs on the audio thread in the block that starts the marked note, which is heard once the device
+// buffer in front of it has played out.
+static void onsetMarkerCallback(unsigned int time, fluid_event_t *event, fluid_sequencer_t *seq, void *data) {
+    if (fluid_event_get_type(event) == FLUID_SEQ_UNREGISTERING) return;
+
+    Synth *s = (Synth *) data;
+    s->lastOnsetNanos = monotonicNanos() + s->audioBufferNanos;
+}
+
+static void startAudioClock(Synth *s) {
+    s->underruns = 0;
+
+    s->audioClockSeqId = fluid_sequencer_register_client(s->sequencer, "audio-clock", audioClockCallback, s);
+    s->audioClockEvent = new_fluid_event();
+    fluid_event_set_source(s->audioClockEvent, -1);
+    fluid_event_set_dest(s->audioClockEvent, s->audioClockSeqId);
+    fluid_event_timer(s->audioClockEvent, NULL);
+
+    s->lastOnsetNanos = 0;
+    s->onsetMarkerSeqId = fluid_sequencer_register_client(s->sequencer, "onset-marker", onsetMarkerCallback, s);
+
+    updateAudioBufferNanos(s);
+    rebaseAudioClock(s, fluid_sequencer_get_tick(s->sequencer));
+
+    fluid_sequencer_send_at(s->sequencer, s->audioClockEvent, s->audioClockStartTick + 1, 1);
+}
+
+// only the samples of presets selected on a channel are loaded, instead of the whole soundfont. The
+// trainer only plays bank 0 program 0, which sfload selects on every channel.
+static void applyDynamicSampleLoading(fluid_settings_t *settings, bool enabled) {
+    fluid_settings_setint(settings, "synth.dynamic-sample-loading", enabled ? 1 : 0);
+}
+
+static int64_t getNativeHeapBytes() {
+#if defined(__GLIBC__) && (__GLIBC__ > 2 || __GLIBC_MINOR__ >= 33)
+    return (int64_t) mallinfo2().uordblks;
+#else
+    return (int64_t) mallinfo().uordblks;
+#endif
+}
+
+// replaces the player of a live synth with a new one, without a playlist yet. Called with the lock held
+// exclusively.
+static fluid_player_t *replacePlayer(Synth *s) {
+    delete_fluid_player(s->player);
+    s->player = new_fluid_player(s->synth);
+    return s->player;
+}
+
+// starts the player with its playlist, or drops it if the MIDI data was rejected.
+static int startPlayer(Synth *s, int addResult, jint loops) {
+    if (addResult != FLUID_OK) {
+        delete_fluid_player(s->player);
+        s->player = NULL;
+        return FLUID_FAILED;
+    }
+
+    fluid_player_set_loop(s->player, loops);
+    return fluid_player_play(s->player);
+}
+
+// the driver goes first, so no audio callback runs while the rest is torn down.
+static void deleteSynth(Synth *s) {
+    delete_fluid_audio_driver(s->audioDriver);
+    delete_fluid_player(s->player);
+    delete_fluid_file_renderer(s->fileRenderer);
+    delete_fluid_sequencer(s->sequencer);
+    delete_fluid_event(s->audioClockEvent);
+    delete_fluid_synth(s->synth);
+    delete_fluid_settings(s->settings);
+
+    s->audioDriver = NULL;
+    s->player = NULL;
+    s->fileRenderer = NULL;
+    s->sequencer = NULL;
+    s->audioClockEvent = NULL;
+    s->synth = NULL;
+    s->settings = NULL;
+    s->closed = true;
+}
+
+// attributes the soundfont bytes read on this thread to s while in scope. The samples of the presets in
+// use are read here even with dynamic sample loading, because sfload selects them on every channel.
+struct SoundFontLoad {
+    SoundFontLoad(Synth *s) {
+        loadingSynth = s;
+    }
+
+    ~SoundFontLoad() {
+        loadingSynth = NULL;
+    }
+};
+
+static void countSoundFontBytes(fluid_long_long_t count) {
+    if (loadingSynth != NULL) loadingSynth->soundFontBytesReadTotal += count;
+}
+
+// the same as FluidSynth's default file callbacks, but counted like the asset loader.
+static void *fileOpen(const char *filename) {
+    return fopen(filename, "rb");
+}
+
+static int fileRead(void *buf, fluid_long_long_t count, void *handle) {
+    if (count < 0 || fread(buf, 1, (size_t) count, (FILE *) handle) != (size_t) count) {
+        return FLUID_FAILED;
+    }
+
+    countSoundFontBytes(count);
+    return FLUID_OK;
+}
+
+static int fileSeek(void *handle, fluid_long_long_t offset, int origin) {
+    return fseeko((FILE *) handle, (off_t) offset, origin) == 0 ? FLUID_OK : FLUID_FAILED;
+}
+
+static fluid_long_long_t fileTell(void *handle) {
+    return ftello((FILE *) handle);
+}
+
+static int fileClose(void *handle) {
+    return fclose((FILE *) handle) == 0 ? FLUID_OK : FLUID_FAILED;
+}
+
+static int loadSoundFont(Synth *s, const char *path) {
+    if (!s->fileLoaderAdded) {
+        fluid_sfloader_t *loader = new_fluid_defsfloader(s->settings);
+        fluid_sfloader_set_callbacks(loader, fileOpen, fileRead, fileSeek, fileTell, fileClose);
+        fluid_synth_add_sfloader(s->synth, loader);
+        s->fileLoaderAdded = true;
+    }
+
+    SoundFontLoad load(s);
+    return fluid_synth_sfload(s->synth, path, 1);
+}
+
+#ifdef __ANDROID__
+struct AssetFile {
+    AAsset *asset;
+    const char *mapped;
+    fluid_long_long_t length;
+    fluid_long_long_t position;
+};
+
+static void *assetOpen(const char *filename) {
+    AAsset *asset = AAssetManager_open(assetManager, filename, AASSET_MODE_RANDOM);
+    if (asset == NULL) {
+        return NULL;
+    }
+
+    AssetFile *file = new AssetFile();
+    file->asset = asset;
+    file->mapped = NULL;
+    file->length = AAsset_getLength64(asset);
+    file->position = 0;
+
+    // only uncompressed assets can be opened as a file descriptor, and for those getBuffer maps the
+    // APK instead of inflating a heap copy.
+    off64_t start, length;
+    int fd = AAsset_openFileDescriptor64(asset, &start, &length);
+    if (fd >= 0) {
+        close(fd);
+        file->mapped = (const char *) AAsset_getBuffer(asset);
+    }
+
+    return file;
+}
+
+static int assetRead(void *buf, fluid_long_long_t count, void *handle) {
+    AssetFile *file = (AssetFile *) handle;
+    if (count < 0 || file->position + count > file->length) {
+        return FLUID_FAILED;
+    }
+
+    if (file->mapped != NULL) {
+        memcpy(buf, file->mapped + file->position, (size_t) count);
+    } else {
+        char *dst = (char *) buf;
+        fluid_long_long_t remaining = count;
+        while (remaining > 0) {
+            int n = AAsset_read(file->asset, dst, (size_t) remaining);
+            if (n <= 0) return FLUID_FAILED;
+            dst += n;
+            remaining -= n;
+        }
+    }
+
+    file->position += count;
+    countSoundFontBytes(count);
+    return FLUID_OK;
+}
+
+static int assetSeek(void *handle, fluid_long_long_t offset, int origin) {
+    AssetFile *file = (AssetFile *) handle;
+
+    fluid_long_long_t position;
+    switch (origin) {
+        case SEEK_SET:
+            position = offset;
+            break;
+        case SEEK_CUR:
+            position = file->position + offset;
+            break;
+        case SEEK_END:
+            position = file->length + offset;
+            break;
+        default:
+            return FLUID_FAILED;
+    }
+
+    if (position < 0 || position > file->length) {
+        return FLUID_FAILED;
+    }
+
+    if (file->mapped == NULL && AAsset_seek64(file->asset, position, SEEK_SET) < 0) {
+        return FLUID_FAILED;
+    }
+
+    file->position = position;
+    return FLUID_OK;
+}
+
+static fluid_long_long_t assetTell(void *handle) {
+    AssetFile *file = (AssetFile *) handle;
+    return file->position;
+}
+
+static int assetClose(void *handle) {
+    AssetFile *file = (AssetFile *) handle;
+    AAsset_close(file->asset);
+    delete file;
+    return FLUID_OK;
+}
+
+static int loadSoundFontFromAssets(JNIEnv *env, Synth *s, jobject javaAssetManager, jstring path) {
+    {
+        std::lock_guard<std::mutex> guard(assetManagerLock);
+        if (assetManagerRef == NULL) {
+            // the native manager is only valid while the Java one is reachable.
+            assetManagerRef = env->NewGlobalRef(javaAssetManager);
+            assetManager = AAssetManager_fromJava(env, assetManagerRef);
+        }
+    }
+
+    // loaders are tried newest first, so plain file paths still fall through to the default loader.
+    if (!s->assetLoaderAdded) {
+        fluid_sfloader_t *loader = new_fluid_defsfloader(s->settings);
+        fluid_sfloader_set_callbacks(loader, assetOpen, assetRead, assetSeek, assetTell, assetClose);
+        fluid_synth_add_sfloader(s->synth, loader);
+        s->assetLoaderAdded = true;
+    }
+
+    const char *assetPath = env->GetStringUTFChars(path, nullptr);
+    int result;
+    {
+        SoundFontLoad load(s);
+        result = fluid_synth_sfload(s->synth, assetPath, 1);
+    }
+    env->ReleaseStringUTFChars(path, assetPath);
+
+    return result;
+}
+#else
+// desktop builds load soundfonts by path with loadSoundFont.
+static int loadSoundFontFromAssets(JNIEnv *env, Synth *s, jobject javaAssetManager, jstring path) {
+    return FLUID_FAILED;
+}
+#endif
 
 extern "C" {
 
+// returns 0 if the synth or its audio driver can't be created.
+JNIEXPORT jlong JNICALL
+Java_dk_rmls_musicgap_FluidSynth_createWithConfig(JNIEnv *env, jclass /* this */, jint profile,
+                                                  jint periodSize, jint periods, jint polyphony,
+                                                  jboolean dynamicSampleLoading) {
+    std::shared_ptr<Synth> instance = std::make_shared<Synth>();
+    Synth *s = instance.get();
+
+    s->settings = new_fluid_settings();
+    applyDynamicSampleLoading(s->settings, dynamicSampleLoading);
+
+    // once the voices run out, the synth steals released voices first, so replays cost bounded cpu.
+    if (polyphony > 0) fluid_settings_setint(s->settings, "synth.polyphony", polyphony);
+
+    s->synth = new_fluid_synth(s->settings);
+    if (s->synth == NULL) {
+        deleteSynth(s);
+        return 0;
+    }
+
+    // driven by the synth's sample clock, so events land on the exact audio frame.
+    s->sequencer = new_fluid_sequencer2(0);
+    s->synthSeqId = fluid_sequencer_register_fluidsynth(s->sequencer, s->synth);
+
+    s->audioDriver = createAudioDriver(s, profile, periodSize, periods);
+    if (s->audioDriver == NULL) {
+        deleteSynth(s);
+        return 0;
+    }
+
+    startAudioClock(s);
+
+    return registerSynth(instance);
+}
+
+// a synth without an audio driver, so clips can be rendered while a live synth keeps playing.
+// returns 0 if it can't be created.
+JNIEXPORT jlong JNICALL
+Java_dk_rmls_musicgap_FluidSynth_createRenderer(JNIEnv *env, jclass /* this */, jint sampleRate,
+                                                jboolean dynamicSampleLoading) {
+    std::shared_ptr<Synth> instance = std::make_shared<Synth>();
+    Synth *s = instance.get();
+
+    s->settings = new_fluid_settings();
+    applyDynamicSampleLoading(s->settings, dynamicSampleLoading);
+    fluid_settings_setnum(s->settings, "synth.sample-rate", sampleRate);
+
+    // reverb and chorus keep a tail between renders, which would make the same clip render differently.
+    fluid_settings_setint(s->settings, "synth.reverb.active", 0);
+    fluid_settings_setint(s->settings, "synth.chorus.active", 0);
+
+    s->synth = new_fluid_synth(s->settings);
+    if (s->synth == NULL) {
+        deleteSynth(s);
+        return 0;
+    }
+
+    return registerSynth(instance);
+}
+
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_close(JNIEnv *env, jclass /* this */, jlong handle) {
+    std::shared_ptr<Synth> instance = unregisterSynth(handle);
+    if (instance == nullptr) {
+        return FLUID_FAILED;
+    }
+
+    std::lock_guard<std::mutex> driverGuard(instance->driverLock);
+    std::unique_lock<std::shared_mutex> guard(instance->lock);
+    deleteSynth(instance.get());
+
+    // the audio thread is gone, so the ring can be let go.
+    if (instance->eventRingRef != NULL) {
+        instance->eventRing = NULL;
+        env->DeleteGlobalRef(instance->eventRingRef);
+        instance->eventRingRef = NULL;
+    }
+
+    return FLUID_OK;
+}
+
+// stops rendering without touching the synth, so the loaded soundfonts survive until resumeAudio.
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_pauseAudio(JNIEnv *env, jclass /* this */, jlong handle) {
+    DriverSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || s->audioDriver == NULL) {
+        return FLUID_FAILED;
+    }
+
+    delete_fluid_audio_driver(s->audioDriver);
+    s->audioDriver = NULL;
+
+    // the stream is closed already, so the other calls only wait for the cleanup.
+    std::unique_lock<std::shared_mutex> guard(s->lock);
+
+    // notes scheduled or queued before pausing would otherwise all fire at once on resume, and their
+    // onset would be reported as the one of the next playback.
+    fluid_sequencer_remove_events(s->sequencer, -1, s->synthSeqId, -1);
+    fluid_sequencer_remove_events(s->sequencer, -1, s->onsetMarkerSeqId, -1);
+    skipEventRing(s);
+    fluid_synth_all_sounds_off(s->synth, -1);
+
+    return FLUID_OK;
+}
+
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_resumeAudio(JNIEnv *env, jclass /* this */, jlong handle) {
+    DriverSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || s->sequencer == NULL || s->audioDriver != NULL) {
+        return FLUID_FAILED;
+    }
+
+    // the sequencer tick stood still while paused, and the stream takes a while to open. Neither must
+    // count as an underrun, so the clock starts over in the first block the new driver renders.
+    s->audioClockRebasePending = true;
+
+    s->audioDriver = createAudioDriver(s, s->requestedProfile, s->requestedPeriodSize, s->requestedPeriods);
+    if (s->audioDriver == NULL) {
+        return FLUID_FAILED;
+    }
+
+    updateAudioBufferNanos(s);
+    return FLUID_OK;
+}
+
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_getAudioInfo(JNIEnv *env, jclass /* this */, jlong handle, jintArray out) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || s->sequencer == NULL || env->GetArrayLength(out) < AUDIO_INFO_SIZE) {
+        return FLUID_FAILED;
+    }
+
+    int periodSize, periods;
+    double sampleRate;
+    fluid_settings_getint(s->settings, "audio.period-size", &periodSize);
+    fluid_settings_getint(s->settings, "audio.periods", &periods);
+    fluid_settings_getnum(s->settings, "synth.sample-rate", &sampleRate);
+
+    jint info[AUDIO_INFO_SIZE];
+    info[AUDIO_INFO_PROFILE] = s->audioProfile;
+    info[AUDIO_INFO_PERIOD_SIZE] = periodSize;
+    info[AUDIO_INFO_PERIODS] = periods;
+    info[AUDIO_INFO_SAMPLE_RATE] = (jint) sampleRate;
+    info[AUDIO_INFO_UNDERRUNS] = s->underruns;
+    env->SetIntArrayRegion(out, 0, AUDIO_INFO_SIZE, info);
+
+    return FLUID_OK;
+}
+
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_getMemoryInfo(JNIEnv *env, jclass /* this */, jlong handle, jlongArray out) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || env->GetArrayLength(out) < MEMORY_INFO_SIZE) {
+        return FLUID_FAILED;
+    }
+
+    jlong info[MEMORY_INFO_SIZE];
+    info[MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL] = (jlong) s->soundFontBytesReadTotal;
+    info[MEMORY_INFO_NATIVE_HEAP_BYTES] = (jlong) getNativeHeapBytes();
+    env->SetLongArrayRegion(out, 0, MEMORY_INFO_SIZE, info);
+
+    return FLUID_OK;
+}
+
+// fills out[STATS_*] without allocating. Cheap enough to call every second while the synth plays. The
+// soundfont bytes are this synth's own running total, the heap is the whole process's.
 JNIEXPORT jint JNICALL
-Java_dk_rmls_musicgap_FluidSynth_init(JNIEnv *env, jclass /* this */) {
-    settings = new_fluid_settings();
-    //fluid_settings_setstr(settings, "audio.oboe.sharing-mode", "Exclusive");
-    //fluid_settings_setstr(settings, "audio.oboe.performance-mode", "LowLatency");
-    //fluid_settings_setstr(settings, "audio.oboe.sample-rate-conversion-quality", "Fastest");
+Java_dk_rmls_musicgap_FluidSynth_getStats(JNIEnv *env, jclass /* this */, jlong handle, jlongArray out) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || env->GetArrayLength(out) < STATS_SIZE) {
+        return FLUID_FAILED;
+    }
 
-    synth = new_fluid_synth(settings);
-    audioDriver = new_fluid_audio_driver(settings, synth);
+    jlong stats[STATS_SIZE];
+    stats[STATS_CPU_LOAD_PERMILLE] = (jlong) (fluid_synth_get_cpu_load(s->synth) * 10);
+    stats[STATS_ACTIVE_VOICES] = fluid_synth_get_active_voice_count(s->synth);
+    stats[STATS_POLYPHONY] = fluid_synth_get_polyphony(s->synth);
+    stats[STATS_UNDERRUNS] = s->underruns;
+    stats[STATS_SOUND_FONT_BYTES_READ_TOTAL] = (jlong) s->soundFontBytesReadTotal;
+    stats[STATS_NATIVE_HEAP_BYTES] = (jlong) getNativeHeapBytes();
+    env->SetLongArrayRegion(out, 0, STATS_SIZE, stats);
 
     return FLUID_OK;
 }
 
-JNIEXPORT int JNICALL
-Java_dk_rmls_musicgap_FluidSynth_deinit(JNIEnv *env, jclass /* this */) {
-    delete_fluid_audio_driver(audioDriver);
-    delete_fluid_synth(synth);
-    delete_fluid_settings(settings);
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_cancelScheduledEvents(JNIEnv *env, jclass /* this */, jlong handle,
+                                                       jboolean cutSound) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || s->sequencer == NULL) {
+        return FLUID_FAILED;
+    }
+
+    // the note offs of a superseded playback would otherwise cut the notes of the next one short.
+    fluid_sequencer_remove_events(s->sequencer, -1, s->synthSeqId, -1);
+    fluid_sequencer_remove_events(s->sequencer, -1, s->onsetMarkerSeqId, -1);
+    if (s->player != NULL) fluid_player_stop(s->player);
 
-    audioDriver = NULL;
-    synth = NULL;
-    settings = NULL;
+    if (cutSound) {
+        fluid_synth_all_sounds_off(s->synth, -1);
+    } else {
+        fluid_synth_all_notes_off(s->synth, -1);
+    }
 
     return FLUID_OK;
 }
 
+JNIEXPORT jlong JNICALL
+Java_dk_rmls_musicgap_FluidSynth_getLastOnsetNanos(JNIEnv *env, jclass /* this */, jlong handle) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL) {
+        return 0;
+    }
+
+    return (jlong) s->lastOnsetNanos;
+}
+
 JNIEXPORT jint JNICALL
-Java_dk_rmls_musicgap_FluidSynth_loadSoundFont(JNIEnv *env, jclass /* this */, jstring path) {
+Java_dk_rmls_musicgap_FluidSynth_loadSoundFont(JNIEnv *env, jclass /* this */, jlong handle, jstring path) {
+    ExclusiveSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL) {
+        return FLUID_FAILED;
+    }
+
     const char *soundfontPath = env->GetStringUTFChars(path, nullptr);
-    jint result = (jint) fluid_synth_sfload(synth, soundfontPath, 1);
-    //__android_log_print(ANDROID_LOG_ERROR, "TRACKERS", "%s %d", soundfontPath, result);
+    jint result = (jint) loadSoundFont(s, soundfontPath);
+    env->ReleaseStringUTFChars(path, soundfontPath);
     return result;
 }
 
 JNIEXPORT jint JNICALL
-Java_dk_rmls_musicgap_FluidSynth_noteOn(JNIEnv *env, jclass /* this */, jint channel, jint key,
-                                        jint velocity) {
-    jint result = (jint) fluid_synth_noteon(synth, channel, key, velocity);
+Java_dk_rmls_musicgap_FluidSynth_loadSoundFontFromAssets(JNIEnv *env, jclass /* this */, jlong handle,
+                                                         jobject javaAssetManager, jstring path) {
+    ExclusiveSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL) {
+        return FLUID_FAILED;
+    }
+
+    return (jint) loadSoundFontFromAssets(env, s, javaAssetManager, path);
+}
+
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_noteOn(JNIEnv *env, jclass /* this */, jlong handle, jint channel,
+                                        jint key, jint velocity) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL) {
+        return FLUID_FAILED;
+    }
+
+    return (jint) applyEvent(s->synth, EVENT_NOTE_ON, channel, key, velocity);
+}
+
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_noteOff(JNIEnv *env, jclass /* this */, jlong handle, jint channel,
+                                         jint key) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL) {
+        return FLUID_FAILED;
+    }
+
+    return (jint) applyEvent(s->synth, EVENT_NOTE_OFF, channel, key, 0);
+}
+
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_sendEvents(JNIEnv *env, jclass /* this */, jlong handle,
+                                            jintArray events, jint count) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || count < 0 || (jlong) count * EVENT_SIZE > env->GetArrayLength(events)) {
+        return FLUID_FAILED;
+    }
+
+    // the synth calls don't re-enter the VM, so the array can be pinned instead of copied.
+    jint *packed = (jint *) env->GetPrimitiveArrayCritical(events, nullptr);
+    jint result = (jint) applyEvents(s->synth, packed, count);
+    env->ReleasePrimitiveArrayCritical(events, packed, JNI_ABORT);
+
     return result;
 }
 
 JNIEXPORT jint JNICALL
-Java_dk_rmls_musicgap_FluidSynth_noteOff(JNIEnv *env, jclass /* this */, jint channel, jint key) {
-    jint result = (jint) fluid_synth_noteoff(synth, channel, key);
+Java_dk_rmls_musicgap_FluidSynth_sendEventBuffer(JNIEnv *env, jclass /* this */, jlong handle,
+                                                 jobject events, jint count) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+
+    jint *packed = (jint *) env->GetDirectBufferAddress(events);
+    jlong capacity = env->GetDirectBufferCapacity(events);
+    if (s == NULL || packed == nullptr || count < 0 || (jlong) count * EVENT_SIZE > capacity) {
+        return FLUID_FAILED;
+    }
+
+    return (jint) applyEvents(s->synth, packed, count);
+}
+
+// hands the live synth an EventRing buffer of capacity slots, which its audio clock drains from then on.
+// A synth takes one ring for its lifetime.
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_attachEventRing(JNIEnv *env, jclass /* this */, jlong handle, jobject ring,
+                                                 jint capacity) {
+    ExclusiveSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || s->sequencer == NULL || s->eventRingRef != NULL) {
+        return FLUID_FAILED;
+    }
+
+    uint8_t *address = (uint8_t *) env->GetDirectBufferAddress(ring);
+    if (address == nullptr
+        || (uintptr_t) address % alignof(jint) != 0
+        || capacity <= 0
+        || (capacity & (capacity - 1)) != 0
+        || env->GetDirectBufferCapacity(ring) < RING_SLOTS_OFFSET + (jlong) capacity * RING_SLOT_BYTES) {
+        return FLUID_FAILED;
+    }
+
+    s->eventRingRef = env->NewGlobalRef(ring);
+    s->eventRingMask = capacity - 1;
+    s->eventRingCancelSequence = *ringInt(address, RING_CANCEL_SEQUENCE_OFFSET);
+    s->eventRing.store(address, std::memory_order_release);
+
+    return FLUID_OK;
+}
+
+// schedules the packed events, each at its offset in ms from now, in a single call.
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_scheduleEvents(JNIEnv *env, jclass /* this */, jlong handle,
+                                                jintArray events, jintArray offsetsMs, jint count) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL
+        || s->sequencer == NULL
+        || count < 0
+        || (jlong) count * EVENT_SIZE > env->GetArrayLength(events)
+        || count > env->GetArrayLength(offsetsMs)) {
+        return FLUID_FAILED;
+    }
+
+    jint *packed = env->GetIntArrayElements(events, nullptr);
+    jint *offsetMs = env->GetIntArrayElements(offsetsMs, nullptr);
+
+    fluid_event_t *event = new_fluid_event();
+    fluid_event_set_source(event, -1);
+    fluid_event_set_dest(event, s->synthSeqId);
+
+    // all offsets are relative to the same tick, so the events keep their spacing.
+    unsigned int now = fluid_sequencer_get_tick(s->sequencer);
+
+    jint result = FLUID_OK;
+    jint firstNoteOnMs = -1;
+    for (jint i = 0; i < count; i++) {
+        const jint *packedEvent = packed + i * EVENT_SIZE;
+        switch (packedEvent[0]) {
+            case EVENT_NOTE_ON:
+                fluid_event_noteon(event, packedEvent[1], (short) packedEvent[2], (short) packedEvent[3]);
+                if (firstNoteOnMs == -1 || offsetMs[i] < firstNoteOnMs) firstNoteOnMs = offsetMs[i];
+                break;
+            case EVENT_NOTE_OFF:
+                fluid_event_noteoff(event, packedEvent[1], (short) packedEvent[2]);
+                break;
+            default:
+                result = FLUID_FAILED;
+                continue;
+        }
+
+        if (fluid_sequencer_send_at(s->sequencer, event, now + (unsigned int) offsetMs[i], 1) != FLUID_OK) {
+            result = FLUID_FAILED;
+        }
+    }
+
+    // the marker is scheduled after the notes, so the sequencer dispatches it after the first note.
+    if (firstNoteOnMs != -1) {
+        fluid_event_set_dest(event, s->onsetMarkerSeqId);
+        fluid_event_timer(event, NULL);
+        fluid_sequencer_send_at(s->sequencer, event, now + (unsigned int) firstNoteOnMs, 1);
+    }
+
+    delete_fluid_event(event);
+
+    env->ReleaseIntArrayElements(offsetsMs, offsetMs, JNI_ABORT);
+    env->ReleaseIntArrayElements(events, packed, JNI_ABORT);
+
     return result;
 }
 
-} // extern "C"
\ No newline at end of file
+// renders the packed events, each applied at the frame given by frameOffsets, into out as interleaved
+// stereo. frameOffsets must be ascending. Renderers only, a live synth is already rendering.
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_renderEvents(JNIEnv *env, jclass /* this */, jlong handle,
+                                              jintArray events, jintArray frameOffsets, jint count,
+                                              jshortArray out) {
+    ExclusiveSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL
+        || s->sequencer != NULL
+        || count < 0
+        || (jlong) count * EVENT_SIZE > env->GetArrayLength(events)
+        || count > env->GetArrayLength(frameOffsets)) {
+        return FLUID_FAILED;
+    }
+
+    jint *packed = env->GetIntArrayElements(events, nullptr);
+    jint *frameOffset = env->GetIntArrayElements(frameOffsets, nullptr);
+    jsize frames = env->GetArrayLength(out) / 2;
+
+    fluid_synth_system_reset(s->synth);
+
+    float left[RENDER_BLOCK_FRAMES];
+    float right[RENDER_BLOCK_FRAMES];
+    jshort block[RENDER_BLOCK_FRAMES * 2];
+
+    jint next = 0;
+    jsize frame = 0;
+    while (frame < frames) {
+        while (next < count && frameOffset[next] <= frame) {
+            const jint *event = packed + next * EVENT_SIZE;
+            applyEvent(s->synth, event[0], event[1], event[2], event[3]);
+            next++;
+        }
+
+        // stop the block at the next event, so it lands on its exact frame.
+        jsize length = frames - frame;
+        if (length > RENDER_BLOCK_FRAMES) length = RENDER_BLOCK_FRAMES;
+        if (next < count && frameOffset[next] - frame < length) length = frameOffset[next] - frame;
+
+        // rendered as float and converted here, since write_s16 dithers with state carried across calls.
+        fluid_synth_write_float(s->synth, length, left, 0, 1, right, 0, 1);
+        for (jsize i = 0; i < length; i++) {
+            float l = left[i] < -1.0f ? -1.0f : (left[i] > 1.0f ? 1.0f : left[i]);
+            float r = right[i] < -1.0f ? -1.0f : (right[i] > 1.0f ? 1.0f : right[i]);
+            block[i * 2] = (jshort) (l * 32767.0f);
+            block[i * 2 + 1] = (jshort) (r * 32767.0f);
+        }
+        env->SetShortArrayRegion(out, frame * 2, length * 2, block);
+
+        frame += length;
+    }
+
+    env->ReleaseIntArrayElements(frameOffsets, frameOffset, JNI_ABORT);
+    env->ReleaseIntArrayElements(events, packed, JNI_ABORT);
+
+    return FLUID_OK;
+}
+
+// plays a standard MIDI file from memory on the synth's own clock, so no events cross JNI while it
+// plays. A loops of -1 repeats it until stopped. Any earlier MIDI playback is stopped first.
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_playMidi(JNIEnv *env, jclass /* this */, jlong handle, jbyteArray data,
+                                          jint length, jint loops) {
+    ExclusiveSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL
+        || s->sequencer == NULL
+        || length < 0
+        || length > env->GetArrayLength(data)
+        || replacePlayer(s) == NULL) {
+        return FLUID_FAILED;
+    }
+
+    // the player only parses the data once it plays, so anything that isn't a MIDI file is caught here.
+    // It keeps a copy, so the array is released right away.
+    jbyte *bytes = env->GetByteArrayElements(data, nullptr);
+    int result = length >= 14 && memcmp(bytes, "MThd", 4) == 0
+                 ? fluid_player_add_mem(s->player, bytes, (size_t) length)
+                 : FLUID_FAILED;
+    env->ReleaseByteArrayElements(data, bytes, JNI_ABORT);
+
+    return startPlayer(s, result, loops);
+}
+
+// same as playMidi, but reads the MIDI file at path.
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_playMidiFile(JNIEnv *env, jclass /* this */, jlong handle, jstring path,
+                                              jint loops) {
+    ExclusiveSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || s->sequencer == NULL || replacePlayer(s) == NULL) {
+        return FLUID_FAILED;
+    }
+
+    const char *midiPath = env->GetStringUTFChars(path, nullptr);
+    int result = fluid_is_midifile(midiPath) ? fluid_player_add(s->player, midiPath) : FLUID_FAILED;
+    env->ReleaseStringUTFChars(path, midiPath);
+
+    return startPlayer(s, result, loops);
+}
+
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_stopMidi(JNIEnv *env, jclass /* this */, jlong handle) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || s->player == NULL) {
+        return FLUID_FAILED;
+    }
+
+    fluid_player_stop(s->player);
+    fluid_synth_all_notes_off(s->synth, -1);
+
+    return FLUID_OK;
+}
+
+// scales the tempo of the MIDI file, so 0.5 plays it at half speed.
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_setMidiTempo(JNIEnv *env, jclass /* this */, jlong handle,
+                                              jdouble multiplier) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || s->player == NULL) {
+        return FLUID_FAILED;
+    }
+
+    return fluid_player_set_tempo(s->player, FLUID_PLAYER_TEMPO_INTERNAL, multiplier);
+}
+
+// jumps to the given MIDI tick. Notes sounding at the old position are released.
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_seekMidi(JNIEnv *env, jclass /* this */, jlong handle, jint tick) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || s->player == NULL) {
+        return FLUID_FAILED;
+    }
+
+    if (fluid_player_seek(s->player, tick) != FLUID_OK) {
+        return FLUID_FAILED;
+    }
+    fluid_synth_all_notes_off(s->synth, -1);
+
+    return FLUID_OK;
+}
+
+// the current MIDI tick, or FLUID_FAILED if nothing is playing.
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_getMidiTick(JNIEnv *env, jclass /* this */, jlong handle) {
+    SharedSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || s->player == NULL || fluid_player_get_status(s->player) != FLUID_PLAYER_PLAYING) {
+        return FLUID_FAILED;
+    }
+
+    return fluid_player_get_current_tick(s->player);
+}
+
+// starts writing everything the renderer renders with renderEventsToExport into the file at path,
+// encoded by libsndfile. Renderers only, and one export at a time.
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_openExport(JNIEnv *env, jclass /* this */, jlong handle, jstring path,
+                                            jint fileType) {
+    ExclusiveSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL
+        || s->sequencer != NULL
+        || s->fileRenderer != NULL
+        || fileType < EXPORT_TYPE_WAV
+        || fileType > EXPORT_TYPE_OGG) {
+        return FLUID_FAILED;
+    }
+
+    const char *exportPath = env->GetStringUTFChars(path, nullptr);
+    fluid_settings_setstr(s->settings, "audio.file.name", exportPath);
+    env->ReleaseStringUTFChars(path, exportPath);
+
+    // Ogg Vorbis has no sample format of its own, so the renderer falls back to one that is valid for it.
+    fluid_settings_setstr(s->settings, "audio.file.type", EXPORT_TYPE_NAMES[fileType]);
+    fluid_settings_setstr(s->settings, "audio.file.format", "s16");
+
+    // the renderer writes one period per block, so this is also the granularity events are applied at.
+    fluid_settings_setint(s->settings, "audio.period-size", RENDER_BLOCK_FRAMES);
+
+    fluid_synth_system_reset(s->synth);
+    s->fileRenderer = new_fluid_file_renderer(s->synth);
+
+    return s->fileRenderer != NULL ? FLUID_OK : FLUID_FAILED;
+}
+
+// renders the packed events into the open export, each applied at the start of the block containing
+// its frame in frameOffsets, which must be ascending. Renders whole blocks until at least frames are
+// written, and returns the number of frames written, or FLUID_FAILED.
+//
+// The synth isn't reset between calls, so notes ring on across chunks just as in a single render.
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_renderEventsToExport(JNIEnv *env, jclass /* this */, jlong handle,
+                                                      jintArray events, jintArray frameOffsets, jint count,
+                                                      jint frames) {
+    ExclusiveSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL
+        || s->fileRenderer == NULL
+        || count < 0
+        || frames < 0
+        || (jlong) count * EVENT_SIZE > env->GetArrayLength(events)
+        || count > env->GetArrayLength(frameOffsets)) {
+        return FLUID_FAILED;
+    }
+
+    jint *packed = env->GetIntArrayElements(events, nullptr);
+    jint *frameOffset = env->GetIntArrayElements(frameOffsets, nullptr);
+
+    jint result = 0;
+    jint next = 0;
+    while (result < frames || next < count) {
+        while (next < count && frameOffset[next] < result + RENDER_BLOCK_FRAMES) {
+            const jint *event = packed + next * EVENT_SIZE;
+            applyEvent(s->synth, event[0], event[1], event[2], event[3]);
+            next++;
+        }
+
+        if (fluid_file_renderer_process_block(s->fileRenderer) != FLUID_OK) {
+            result = FLUID_FAILED;
+            break;
+        }
+        result += RENDER_BLOCK_FRAMES;
+    }
+
+    env->ReleaseIntArrayElements(frameOffsets, frameOffset, JNI_ABORT);
+    env->ReleaseIntArrayElements(events, packed, JNI_ABORT);
+
+    return result;
+}
+
+// flushes the encoder and closes the export file.
+JNIEXPORT jint JNICALL
+Java_dk_rmls_musicgap_FluidSynth_closeExport(JNIEnv *env, jclass /* this */, jlong handle) {
+    ExclusiveSynth locked(handle);
+    Synth *s = locked.get();
+    if (s == NULL || s->fileRenderer == NULL) {
+        return FLUID_FAILED;
+    }
+
+    delete_fluid_file_renderer(s->fileRenderer);
+    s->fileRenderer = NULL;
+
+    return FLUID_OK;
+}
+
+} // extern "C"
@@ -0,0 +1,189 @@
+package dk.rmls.musicgap;
+
+import static dk.rmls.musicgap.MainActivity.Dyad;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Picks the strata of a DyadGenerator in proportion to how often they are answered wrong, so weak
+// intervals and registers come up more often. The weights sit in a Fenwick tree, so drawing a stratum
+// and updating one after an answer are both O(log n), and neither allocates.
+//
+// Strata that were asked within the last RECENT_DRAWS questions are damped, so a hard interval doesn't
+// come back immediately after it was asked.
+public class AdaptiveScheduler {
+
+  static private final int RECENT_DRAWS = 4;
+  static private final double RECENT_PENALTY = 0.1;
+
+  // keeps well-known strata from disappearing entirely.
+  static private final double MIN_WEIGHT = 0.05;
+
+  private final DyadGenerator generator;
+  private final SplittableRandom random;
+
+  // per stratum.
+  private final int[] correct;
+  private final int[] total;
+  private final int[] recentCount;
+  private final double[] weights;
+
+  // 1-based Fenwick tree over weights.
+  private final double[] tree;
+  private final int highestPowerOfTwo;
+
+  private final int[] recent = new int[RECENT_DRAWS];
+  private int recentPosition;
+
+  public AdaptiveScheduler(DyadGenerator generator) {
+    this(generator, new SplittableRandom());
+  }
+
+  public AdaptiveScheduler(DyadGenerator generator, long seed) {
+    this(generator, new SplittableRandom(seed));
+  }
+
+  private AdaptiveScheduler(DyadGenerator generator, SplittableRandom random) {
+    this.generator = generator;
+    this.random = random;
+
+    int strataCount = generator.getDeckSize();
+    correct = new int[strataCount];
+    total = new int[strataCount];
+    recentCount = new int[strataCount];
+    weights = new double[strataCount];
+    tree = new double[strataCount + 1];
+    highestPowerOfTwo = Integer.highestOneBit(strataCount);
+
+    Arrays.fill(recent, -1);
+    rebuild();
+  }
+
+  public void next(Dyad out) {
+    int stratum = find(random.nextDouble() * prefixSum(weights.length));
+    generator.next(stratum, out);
+
+    markRecent(stratum);
+  }
+
+  // called for every guess, including the wrong guesses before the right one.
+  public void record(int noteA, int noteB, boolean wasCorrect) {
+    int stratum = generator.getStratum(noteA, noteB);
+    if (stratum == -1) return;
+
+    correct[stratum] += wasCorrect ? 1 : 0;
+    total[stratum] += 1;
+    updateWeight(stratum);
+  }
+
+  // the saved history only counts per interval and per register. Every stratum starts from the answers
+  // of its interval, with their error rate scaled by how much worse or better its register does than
+  // all answers together. That is exact when interval and register difficulty are independent.
+  public void seed(StatsStore.Aggregates aggregates) {
+    int allCorrect = 0;
+    int allTotal = 0;
+    for (int register = 0; register < StatsStore.REGISTERS; register++) {
+      allCorrect += aggregates.registerCorrect[register];
+      allTotal += aggregates.registerTotal[register];
+    }
+    double allErrorRate = getErrorRate(allCorrect, allTotal);
+
+    for (int stratum = 0; stratum < weights.length; stratum++) {
+      int interval = Math.abs(generator.getStratumInterval(stratum));
+      if (interval >= StatsStore.INTERVALS) continue;
+
+      int register = generator.getStratumRegister(stratum);
+      double registerErrorRate = getErrorRate(aggregates.registerCorrect[register], aggregates.registerTotal[register]);
+
+      int intervalTotal = aggregates.intervalTotal[interval];
+      double errorRate = getErrorRate(aggregates.intervalCorrect[interval], intervalTotal) * registerErrorRate / allErrorRate;
+      int errors = (int) Math.round(intervalTotal * Math.min(1, errorRate));
+
+      correct[stratum] += intervalTotal - errors;
+      total[stratum] += intervalTotal;
+    }
+
+    rebuild();
+  }
+
+  public double getWeight(int stratum) {
+    return weights[stratum];
+  }
+
+  private void markRecent(int stratum) {
+    int expired = recent[recentPosition];
+    recent[recentPosition] = stratum;
+    recentPosition = (recentPosition + 1) % RECENT_DRAWS;
+
+    recentCount[stratum] += 1;
+    updateWeight(stratum);
+
+    if (expired != -1) {
+      recentCount[expired] -= 1;
+      updateWeight(expired);
+    }
+  }
+
+  private double computeWeight(int stratum) {
+    double weight = MIN_WEIGHT + getErrorRate(correct[stratum], total[stratum]);
+
+    if (recentCount[stratum] > 0) {
+      weight *= RECENT_PENALTY;
+    }
+    return weight;
+  }
+
+  private void updateWeight(int stratum) {
+    double weight = computeWeight(stratum);
+    double delta = weight - weights[stratum];
+    weights[stratum] = weight;
+
+    for (int i = stratum + 1; i < tree.length; i += i & -i) {
+      tree[i] += delta;
+    }
+  }
+
+  // builds the tree in O(n), which also drops any rounding error from the incremental updates.
+  private void rebuild() {
+    Arrays.fill(tree, 0);
+    for (int stratum = 0; stratum < weights.length; stratum++) {
+      weights[stratum] = computeWeight(stratum);
+
+      int i = stratum + 1;
+      tree[i] += weights[stratum];
+
+      int parent = i + (i & -i);
+      if (parent < tree.length) {
+        tree[parent] += tree[i];
+      }
+    }
+  }
+
+  private double prefixSum(int count) {
+    double sum = 0;
+    for (int i = count; i > 0; i -= i & -i) {
+      sum += tree[i];
+    }
+    return sum;
+  }
+
+  // the stratum whose cumulative weight range contains target.
+  private int find(double target) {
+    int position = 0;
+    for (int step = highestPowerOfTwo; step > 0; step >>= 1) {
+      int next = position + step;
+      if (next < tree.length && tree[next] <= target) {
+        position = next;
+        target -= tree[next];
+      }
+    }
+
+    // rounding can leave target just past the last range.
+    return Math.min(position, weights.length - 1);
+  }
+
+  // the error rate, pulled towards 1/2 while there are few answers.
+  static private double getErrorRate(int correct, int total) {
+    return (total - correct + 1) / (double) (total + 2);
+  }
+}
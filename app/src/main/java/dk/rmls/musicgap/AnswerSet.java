@@ -0,0 +1,32 @@
+package dk.rmls.musicgap;
+
+// The answers the player picks from, and how their buttons are laid out. layout holds answer indices
+// row by row, with -1 for an empty cell.
+public class AnswerSet {
+
+  public String[] names;
+  public int[][] layout;
+
+  static public AnswerSet intervals() {
+    AnswerSet result = new AnswerSet();
+    result.names = new String[]{
+        "unison", "minor 2nd", "major 2rd", "minor 3rd", "major 3rd", "perfect 4th", "tritone",
+        "perfect 5th", "minor 6th", "major 6th", "minor 7th", "major 7th", "octave",
+    };
+    result.layout = new int[][]{
+        {-1, 0},
+        {1, 2},
+        {3, 4},
+        {-1, 5},
+        {6, 7},
+        {8, 9},
+        {10, 11},
+        {-1, 12},
+    };
+    return result;
+  }
+
+  public int size() {
+    return names.length;
+  }
+}
@@ -0,0 +1,255 @@
+package dk.rmls.musicgap;
+
+import android.content.res.AssetManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Owns the process-wide FluidSynth instance. Activities acquire and release it, and the synth is only
+// torn down once nobody has held it for SHUTDOWN_DELAY_MS, so recreating an Activity (rotation, dark
+// mode) reuses the running driver and the loaded soundfont. All native lifecycle calls run in order on
+// a single background thread, so the UI thread never waits for the audio driver or the soundfont parser.
+public class AudioEngine {
+
+  static private final String TAG = "musicgap";
+
+  // replays come from pre-rendered clips. Off until their onset has been measured against the live
+  // synth's with ReactionMetrics, and without it no renderer is started.
+  static public boolean PLAY_CACHED_CLIPS = false;
+
+  static private final long SHUTDOWN_DELAY_MS = 5000;
+  static private final long CLIP_CACHE_BYTES = 16 * 1024 * 1024;
+
+  // room for a few superseded exercises that haven't been drained yet.
+  static private final int EVENT_RING_CAPACITY = 64;
+
+  static private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  static private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  // only touched on the main thread.
+  static private int references;
+  static private boolean started;
+  static private int generation;
+  static private boolean ready;
+  static private Runnable pendingAction;
+
+  static private final ClipCache clipCache = new ClipCache(CLIP_CACHE_BYTES);
+  static private volatile int sampleRate;
+
+  // set on the executor. The live synth is read on the main thread too, the renderer isn't.
+  static private volatile long synth;
+  static private long renderer;
+
+  // attached to the live synth, null if that failed. Only the main thread offers events.
+  static private volatile EventRing eventRing;
+
+  static private final Runnable shutdown = AudioEngine::stop;
+
+  static public void acquire(AssetManager assetManager, String soundFontName, FluidSynth.AudioConfig config) {
+    references += 1;
+    mainHandler.removeCallbacks(shutdown);
+
+    if (!started) {
+      start(assetManager, soundFontName, config);
+    }
+  }
+
+  static public void release() {
+    references -= 1;
+
+    if (references == 0) {
+      mainHandler.postDelayed(shutdown, SHUTDOWN_DELAY_MS);
+    }
+  }
+
+  static public void pause() {
+    executor.execute(() -> FluidSynth.pauseAudio(synth));
+    ClipPlayer.release();
+  }
+
+  // does nothing if the driver wasn't paused, as after a configuration change.
+  static public void resume() {
+    executor.execute(() -> FluidSynth.resumeAudio(synth));
+  }
+
+  // the handle of the live synth, 0 while it isn't running.
+  static public long getSynth() {
+    return synth;
+  }
+
+  static public EventRing getEventRing() {
+    return eventRing;
+  }
+
+  static public int getSampleRate() {
+    return sampleRate;
+  }
+
+  static public short[] getCachedClip(Exercise exercise) {
+    return clipCache.get(exercise);
+  }
+
+  // renders a copy of the exercise into the clip cache on the engine thread, unless it is cached already
+  // or there is no renderer. Costs nothing while clips aren't played. The live synth needs no warming,
+  // sfload already selects the one preset the trainer plays, which loads its samples.
+  static public void prerender(Exercise exercise) {
+    if (!PLAY_CACHED_CLIPS) return;
+
+    Exercise copy = new Exercise();
+    copy.copyFrom(exercise);
+
+    executor.execute(() -> {
+      if (sampleRate == 0 || clipCache.contains(copy)) return;
+
+      long renderStart = System.nanoTime();
+      short[] clip = ClipRenderer.renderExercise(renderer, copy, sampleRate);
+      clipCache.put(copy, clip);
+
+      Log.d(TAG, String.format("rendered %s in %.1f ms, cache %d KB",
+          copy, (System.nanoTime() - renderStart) / 1e6, clipCache.getBytes() / 1024));
+    });
+  }
+
+  // deletes the files on the engine thread, after the startup that is already queued.
+  static public void deleteInBackground(File... files) {
+    executor.execute(() -> {
+      for (File file : files) {
+        file.delete();
+      }
+    });
+  }
+
+  // runs the action now if the synth is ready, otherwise once it is. Only the latest pending action
+  // is kept, so repeated taps during startup play once.
+  static public void runWhenReady(Runnable action) {
+    if (ready) {
+      action.run();
+    } else {
+      pendingAction = action;
+    }
+  }
+
+  static private void start(AssetManager assetManager, String soundFontName, FluidSynth.AudioConfig config) {
+    started = true;
+    generation += 1;
+
+    int startGeneration = generation;
+    executor.execute(() -> {
+      long driverStart = System.nanoTime();
+      synth = FluidSynth.create(config);
+      if (synth == 0) {
+        Log.e(TAG, "synth startup failed: no audio driver");
+        return;
+      }
+
+      EventRing ring = new EventRing(EVENT_RING_CAPACITY);
+      if (FluidSynth.attachEventRing(synth, ring.getBuffer(), ring.getCapacity()) == FluidSynth.FLUID_OK) {
+        eventRing = ring;
+      } else {
+        Log.e(TAG, "event ring unavailable, scheduling on the sequencer");
+      }
+
+      long[] memoryBefore = new long[FluidSynth.MEMORY_INFO_SIZE];
+      FluidSynth.getMemoryInfo(synth, memoryBefore);
+
+      long sfloadStart = System.nanoTime();
+      int loadedSfontId = FluidSynth.loadSoundFontFromAssets(synth, assetManager, soundFontName);
+
+      long end = System.nanoTime();
+
+      Log.i(TAG, String.format("synth startup: driver %.1f ms, sfload %.1f ms",
+          (sfloadStart - driverStart) / 1e6, (end - sfloadStart) / 1e6));
+      logMemoryInfo("sfload", synth, memoryBefore);
+      logAudioInfo();
+
+      if (loadedSfontId == FluidSynth.FLUID_FAILED) {
+        Log.e(TAG, "synth startup failed: sfload");
+        return;
+      }
+
+      mainHandler.post(() -> onReady(startGeneration));
+
+      if (!PLAY_CACHED_CLIPS) return;
+
+      // the live synth is already playable while the renderer loads its own copy of the soundfont.
+      long rendererStart = System.nanoTime();
+      startRenderer(assetManager, soundFontName, config.dynamicSampleLoading);
+      Log.i(TAG, String.format("renderer startup: %.1f ms", (System.nanoTime() - rendererStart) / 1e6));
+    });
+  }
+
+  static private void stop() {
+    started = false;
+    ready = false;
+    pendingAction = null;
+
+    executor.execute(() -> {
+      logAudioInfo();
+      eventRing = null;
+      FluidSynth.close(synth);
+      synth = 0;
+
+      FluidSynth.close(renderer);
+      renderer = 0;
+      clipCache.clear();
+      sampleRate = 0;
+    });
+    ClipPlayer.release();
+  }
+
+  // clips are rendered at the live sample rate, so playing them back needs no resampling.
+  static private void startRenderer(AssetManager assetManager, String soundFontName, boolean dynamicSampleLoading) {
+    int[] audioInfo = new int[FluidSynth.AUDIO_INFO_SIZE];
+    if (FluidSynth.getAudioInfo(synth, audioInfo) != FluidSynth.FLUID_OK) return;
+
+    int liveSampleRate = audioInfo[FluidSynth.AUDIO_INFO_SAMPLE_RATE];
+    renderer = FluidSynth.createRenderer(liveSampleRate, dynamicSampleLoading);
+    if (renderer == 0
+        || FluidSynth.loadSoundFontFromAssets(renderer, assetManager, soundFontName) == FluidSynth.FLUID_FAILED) {
+      Log.e(TAG, "offline renderer unavailable, playing live only");
+      FluidSynth.close(renderer);
+      renderer = 0;
+      return;
+    }
+
+    sampleRate = liveSampleRate;
+    ClipPlayer.open(sampleRate);
+  }
+
+  static private void onReady(int startGeneration) {
+    // the engine may have been stopped, or even restarted, while the startup was still running.
+    if (!started || startGeneration != generation) return;
+
+    ready = true;
+
+    if (pendingAction != null) {
+      Runnable action = pendingAction;
+      pendingAction = null;
+      action.run();
+    }
+  }
+
+  static private void logAudioInfo() {
+    int[] audioInfo = new int[FluidSynth.AUDIO_INFO_SIZE];
+    if (FluidSynth.getAudioInfo(synth, audioInfo) != FluidSynth.FLUID_OK) return;
+
+    Log.i(TAG, String.format("audio profile %d, period %dx%d @ %d Hz (%.1f ms), underruns: %d",
+        audioInfo[FluidSynth.AUDIO_INFO_PROFILE], audioInfo[FluidSynth.AUDIO_INFO_PERIOD_SIZE],
+        audioInfo[FluidSynth.AUDIO_INFO_PERIODS], audioInfo[FluidSynth.AUDIO_INFO_SAMPLE_RATE],
+        FluidSynth.getBufferLatencyMs(audioInfo), audioInfo[FluidSynth.AUDIO_INFO_UNDERRUNS]));
+  }
+
+  static private void logMemoryInfo(String step, long handle, long[] before) {
+    long[] after = new long[FluidSynth.MEMORY_INFO_SIZE];
+    FluidSynth.getMemoryInfo(handle, after);
+
+    Log.i(TAG, String.format("%s: soundfont bytes read %d KB, native heap %d KB (%+d KB)", step,
+        (after[FluidSynth.MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL] - before[FluidSynth.MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL]) / 1024,
+        after[FluidSynth.MEMORY_INFO_NATIVE_HEAP_BYTES] / 1024,
+        (after[FluidSynth.MEMORY_INFO_NATIVE_HEAP_BYTES] - before[FluidSynth.MEMORY_INFO_NATIVE_HEAP_BYTES]) / 1024));
+  }
+}
@@ -0,0 +1,56 @@
+package dk.rmls.musicgap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// LRU cache of rendered PCM clips, bounded by the total size of the clips rather than their count.
+// Clips are keyed by the exercise they were rendered from, which must not change once it is put.
+public class ClipCache {
+
+  private final LinkedHashMap<Exercise, short[]> clips = new LinkedHashMap<>(16, 0.75f, true);
+  private final long maxBytes;
+  private long bytes;
+
+  public ClipCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  synchronized public short[] get(Exercise key) {
+    return clips.get(key);
+  }
+
+  synchronized public boolean contains(Exercise key) {
+    return clips.containsKey(key);
+  }
+
+  synchronized public void put(Exercise key, short[] clip) {
+    short[] previous = clips.put(key, clip);
+    if (previous != null) {
+      bytes -= getBytes(previous);
+    }
+    bytes += getBytes(clip);
+
+    Iterator<Map.Entry<Exercise, short[]>> eldest = clips.entrySet().iterator();
+    while (bytes > maxBytes && eldest.hasNext()) {
+      Map.Entry<Exercise, short[]> entry = eldest.next();
+      if (entry.getKey() == key) continue;
+
+      bytes -= getBytes(entry.getValue());
+      eldest.remove();
+    }
+  }
+
+  synchronized public void clear() {
+    clips.clear();
+    bytes = 0;
+  }
+
+  synchronized public long getBytes() {
+    return bytes;
+  }
+
+  static private long getBytes(short[] clip) {
+    return clip.length * 2L;
+  }
+}
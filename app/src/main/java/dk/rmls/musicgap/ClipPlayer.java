@@ -0,0 +1,130 @@
+package dk.rmls.musicgap;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Plays pre-rendered interleaved stereo clips on one long-lived low latency track, streamed to in small
+// chunks. A clip never waits for a track to be built, only for what the track still has buffered.
+// Starting a clip abandons the one before it after its current chunk, and clips that are superseded
+// before they got to play are skipped.
+public class ClipPlayer {
+
+  // a superseded clip stops within one chunk, a few ms.
+  static private final int CHUNK_FRAMES = 256;
+
+  static private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  // only touched on the executor.
+  static private AudioTrack track;
+  static private int trackSampleRate;
+  // frames written since the track was built. It is never flushed, so this is also its frame position.
+  static private long framesWritten;
+  static private final AudioTimestamp timestamp = new AudioTimestamp();
+
+  static private volatile long lastOnsetNanos;
+  static private final AtomicInteger latestRequest = new AtomicInteger();
+
+  // builds the track ahead of the first clip.
+  static public void open(int sampleRate) {
+    executor.execute(() -> openTrack(sampleRate));
+  }
+
+  static public void play(short[] clip, int sampleRate) {
+    int request = latestRequest.incrementAndGet();
+    executor.execute(() -> {
+      if (request != latestRequest.get()) return;
+
+      openTrack(sampleRate);
+      if (track.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
+        track.play();
+      }
+
+      // blocking writes keep pace with playback, so the onset is polled for between chunks.
+      long clipStartFrame = framesWritten;
+      boolean onsetKnown = false;
+      for (int offset = 0; offset < clip.length; offset += CHUNK_FRAMES * 2) {
+        if (request != latestRequest.get()) return;
+
+        int length = Math.min(CHUNK_FRAMES * 2, clip.length - offset);
+        int written = track.write(clip, offset, length, AudioTrack.WRITE_BLOCKING);
+        if (written != length) {
+          releaseTrack();
+          return;
+        }
+        framesWritten += written / 2;
+
+        if (!onsetKnown) {
+          onsetKnown = pollOnset(clipStartFrame, sampleRate);
+        }
+      }
+    });
+  }
+
+  // System.nanoTime() at which the first frame of the last clip was heard, or 0 if not known yet.
+  static public long getLastOnsetNanos() {
+    return lastOnsetNanos;
+  }
+
+  // the part of the clip the track has buffered already still plays out.
+  static public void stop() {
+    latestRequest.incrementAndGet();
+  }
+
+  // gives the track back to the system, the next clip builds a new one.
+  static public void release() {
+    latestRequest.incrementAndGet();
+    executor.execute(ClipPlayer::releaseTrack);
+  }
+
+  static private void openTrack(int sampleRate) {
+    if (track != null && trackSampleRate == sampleRate) return;
+    releaseTrack();
+
+    AudioFormat format = new AudioFormat.Builder()
+        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+        .setSampleRate(sampleRate)
+        .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
+        .build();
+
+    AudioAttributes attributes = new AudioAttributes.Builder()
+        .setUsage(AudioAttributes.USAGE_GAME)
+        .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+        .build();
+
+    int bufferBytes = AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_STEREO,
+        AudioFormat.ENCODING_PCM_16BIT);
+
+    track = new AudioTrack.Builder()
+        .setAudioAttributes(attributes)
+        .setAudioFormat(format)
+        .setTransferMode(AudioTrack.MODE_STREAM)
+        .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+        .setBufferSizeInBytes(bufferBytes)
+        .build();
+    trackSampleRate = sampleRate;
+    framesWritten = 0;
+  }
+
+  // the timestamp pairs a played frame with the time it was heard, so the first frame of the clip was
+  // heard as many frames earlier as have played since it. Returns false until the clip has started.
+  static private boolean pollOnset(long clipStartFrame, int sampleRate) {
+    if (!track.getTimestamp(timestamp) || timestamp.framePosition < clipStartFrame) return false;
+
+    lastOnsetNanos = timestamp.nanoTime - (timestamp.framePosition - clipStartFrame) * 1_000_000_000L / sampleRate;
+    return true;
+  }
+
+  static private void releaseTrack() {
+    if (track == null) return;
+
+    track.stop();
+    track.release();
+    track = null;
+  }
+}
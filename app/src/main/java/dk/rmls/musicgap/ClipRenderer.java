@@ -0,0 +1,32 @@
+package dk.rmls.musicgap;
+
+// Renders exercises offline to interleaved stereo PCM, matching what playExercise plays live.
+public class ClipRenderer {
+
+  // long enough for the piano release to die out after the last note off.
+  static public final int RELEASE_TAIL_MS = 1000;
+
+  static public short[] renderExercise(long renderer, Exercise exercise, int sampleRate) {
+    int frames = msToFrames(exercise.getLengthMs() + RELEASE_TAIL_MS, sampleRate);
+
+    int[] events = new int[2 * Exercise.MAX_NOTES * FluidSynth.EVENT_SIZE];
+    int[] frameOffsets = new int[2 * Exercise.MAX_NOTES];
+
+    int count = exercise.getEvents(events, frameOffsets, MainActivity.NOTE_VELOCITY);
+    for (int i = 0; i < count; i++) {
+      frameOffsets[i] = msToFrames(frameOffsets[i], sampleRate);
+    }
+
+    short[] result = new short[frames * 2];
+    if (FluidSynth.renderEvents(renderer, events, frameOffsets, count, result) != FluidSynth.FLUID_OK) {
+      String error = String.format("failed to render exercise %s", exercise);
+      throw new IllegalStateException(error);
+    }
+
+    return result;
+  }
+
+  static public int msToFrames(int ms, int sampleRate) {
+    return (int) ((long) ms * sampleRate / 1000);
+  }
+}
@@ -0,0 +1,231 @@
+package dk.rmls.musicgap;
+
+import static dk.rmls.musicgap.MainActivity.Dyad;
+import static dk.rmls.musicgap.MainActivity.IntervalSettings;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Draws random dyads for fixed interval settings. Everything that only depends on the settings is
+// computed once up front, so drawing a dyad allocates nothing.
+//
+// Dyads are drawn from a shuffled deck of strata, one per (signed interval, register) pair, where the
+// registers split the possible noteA range of each interval into REGISTERS bands. Every aligned run of
+// getDeckSize() dyads therefore covers each interval, direction and register exactly once.
+public class DyadGenerator {
+
+  static public final int REGISTERS = 3;
+
+  // batches smaller than this aren't worth forking.
+  static private final int PARALLEL_THRESHOLD = 1 << 14;
+
+  // per stratum.
+  private final int[] intervals;
+  private final int[] lowestNoteA;
+  private final int[] noteACount;
+
+  // first stratum of each interval, indexed by interval + largestInterval, or -1.
+  private final int[] firstStratum;
+  private final int largestInterval;
+
+  private final int[] deck;
+  private int deckPosition;
+
+  private final SplittableRandom random;
+
+  public DyadGenerator(IntervalSettings settings) {
+    this(settings, new SplittableRandom());
+  }
+
+  // the same seed and settings always produce the same sequence of dyads.
+  public DyadGenerator(IntervalSettings settings, long seed) {
+    this(settings, new SplittableRandom(seed));
+  }
+
+  private DyadGenerator(IntervalSettings settings, SplittableRandom random) {
+    int largestInterval = settings.highestNote - settings.lowestNote;
+
+    int strataCount = 0;
+    boolean[] seen = new boolean[2 * Math.max(0, largestInterval) + 1];
+    for (int interval : settings.intervals) {
+      if (Math.abs(interval) > largestInterval || seen[interval + largestInterval]) continue;
+      seen[interval + largestInterval] = true;
+
+      int count = largestInterval - Math.abs(interval) + 1;
+      strataCount += Math.min(REGISTERS, count);
+    }
+
+    if (strataCount == 0) {
+      String error = String.format("no candidate intervals within the range [%d, %d]", settings.lowestNote, settings.highestNote);
+      throw new IllegalStateException(error);
+    }
+
+    intervals = new int[strataCount];
+    lowestNoteA = new int[strataCount];
+    noteACount = new int[strataCount];
+
+    this.largestInterval = largestInterval;
+    firstStratum = new int[2 * largestInterval + 1];
+    Arrays.fill(firstStratum, -1);
+
+    int stratum = 0;
+    for (int interval : settings.intervals) {
+      if (Math.abs(interval) > largestInterval) continue;
+      if (firstStratum[interval + largestInterval] != -1) continue;
+
+      firstStratum[interval + largestInterval] = stratum;
+
+      int lowest = settings.lowestNote - Math.min(0, interval);
+      int highest = settings.highestNote - Math.max(0, interval);
+      int count = highest - lowest + 1;
+      int registers = Math.min(REGISTERS, count);
+
+      for (int r = 0; r < registers; r++) {
+        int registerLowest = lowest + count * r / registers;
+        int registerEnd = lowest + count * (r + 1) / registers;
+
+        intervals[stratum] = interval;
+        lowestNoteA[stratum] = registerLowest;
+        noteACount[stratum] = registerEnd - registerLowest;
+        stratum += 1;
+      }
+    }
+
+    deck = new int[strataCount];
+    for (int i = 0; i < deck.length; i++) {
+      deck[i] = i;
+    }
+    deckPosition = deck.length;
+
+    this.random = random;
+  }
+
+  // shares the precomputed strata, but has its own deck and random stream.
+  private DyadGenerator(DyadGenerator source, SplittableRandom random) {
+    intervals = source.intervals;
+    lowestNoteA = source.lowestNoteA;
+    noteACount = source.noteACount;
+    firstStratum = source.firstStratum;
+    largestInterval = source.largestInterval;
+
+    deck = source.deck.clone();
+    deckPosition = deck.length;
+
+    this.random = random;
+  }
+
+  public int getDeckSize() {
+    return deck.length;
+  }
+
+  public void next(Dyad out) {
+    next(nextStratum(), out);
+  }
+
+  // draws a dyad from the given stratum, bypassing the deck.
+  public void next(int stratum, Dyad out) {
+    int noteA = lowestNoteA[stratum] + random.nextInt(noteACount[stratum]);
+
+    out.noteA = noteA;
+    out.noteB = noteA + intervals[stratum];
+  }
+
+  public int getStratumInterval(int stratum) {
+    return intervals[stratum];
+  }
+
+  // the StatsStore register of the dyad in the middle of the stratum.
+  public int getStratumRegister(int stratum) {
+    int noteA = lowestNoteA[stratum] + noteACount[stratum] / 2;
+    return StatsStore.getRegister(noteA, noteA + intervals[stratum]);
+  }
+
+  // the stratum the dyad could have been drawn from, or -1 if none.
+  public int getStratum(int noteA, int noteB) {
+    int interval = noteB - noteA;
+    if (Math.abs(interval) > largestInterval) return -1;
+
+    int first = firstStratum[interval + largestInterval];
+    if (first == -1) return -1;
+
+    for (int stratum = first; stratum < intervals.length && intervals[stratum] == interval; stratum++) {
+      if (noteA >= lowestNoteA[stratum] && noteA < lowestNoteA[stratum] + noteACount[stratum]) {
+        return stratum;
+      }
+    }
+    return -1;
+  }
+
+  // fills noteA[offset, offset + count) and noteB[offset, offset + count) with consecutive dyads.
+  public void generate(int[] noteA, int[] noteB, int offset, int count) {
+    for (int i = offset; i < offset + count; i++) {
+      int stratum = nextStratum();
+      int a = lowestNoteA[stratum] + random.nextInt(noteACount[stratum]);
+
+      noteA[i] = a;
+      noteB[i] = a + intervals[stratum];
+    }
+  }
+
+  // like generate, but spread over the common fork/join pool. The work is split on deck boundaries and
+  // the random streams are split in a fixed order, so the result only depends on the seed.
+  public void generateParallel(int[] noteA, int[] noteB, long seed) {
+    int count = Math.min(noteA.length, noteB.length);
+    ForkJoinPool.commonPool().invoke(new GenerateTask(this, new SplittableRandom(seed), noteA, noteB, 0, count));
+  }
+
+  private int nextStratum() {
+    if (deckPosition == deck.length) {
+      shuffleDeck();
+      deckPosition = 0;
+    }
+
+    int result = deck[deckPosition];
+    deckPosition += 1;
+    return result;
+  }
+
+  private void shuffleDeck() {
+    for (int i = deck.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int swap = deck[i];
+      deck[i] = deck[j];
+      deck[j] = swap;
+    }
+  }
+
+  static private class GenerateTask extends RecursiveAction {
+
+    private final DyadGenerator tables;
+    private final SplittableRandom random;
+    private final int[] noteA, noteB;
+    private final int from, to;
+
+    GenerateTask(DyadGenerator tables, SplittableRandom random, int[] noteA, int[] noteB, int from, int to) {
+      this.tables = tables;
+      this.random = random;
+      this.noteA = noteA;
+      this.noteB = noteB;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      int deckSize = tables.getDeckSize();
+      int count = to - from;
+
+      int mid = from + (count / 2) / deckSize * deckSize;
+      if (count <= PARALLEL_THRESHOLD || mid == from) {
+        new DyadGenerator(tables, random).generate(noteA, noteB, from, count);
+        return;
+      }
+
+      GenerateTask left = new GenerateTask(tables, random.split(), noteA, noteB, from, mid);
+      GenerateTask right = new GenerateTask(tables, random.split(), noteA, noteB, mid, to);
+      invokeAll(left, right);
+    }
+  }
+}
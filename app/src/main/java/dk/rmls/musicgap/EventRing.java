@@ -0,0 +1,122 @@
+package dk.rmls.musicgap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// A single-producer, single-consumer queue of timed note events in a direct buffer that is shared with
+// a live synth, see FluidSynth.attachEventRing. One Java thread offers events with plain memory writes,
+// and the audio thread applies the ones that are due at the start of every block it renders, so a note
+// costs no JNI call and always lands on a block boundary.
+//
+// The events of one offer form a batch, timed on the synth's sample clock from the block in which the
+// audio thread reaches it. So their spacing doesn't depend on how the device groups blocks into
+// callbacks. Events are applied in the order they were offered, so a batch starts once everything
+// offered before it has been applied or cancelled.
+public class EventRing {
+
+  // the header keeps what the producer writes and what the consumer writes on separate cache lines.
+  // Indices run freely and wrap around, a slot is index & (capacity - 1).
+  static public final int WRITE_INDEX_OFFSET = 0;
+  static public final int CANCEL_INDEX_OFFSET = 4;
+  static public final int CANCEL_CUT_SOUND_OFFSET = 8;
+  static public final int CANCEL_SEQUENCE_OFFSET = 12;
+  static public final int READ_INDEX_OFFSET = 64;
+  static public final int SLOTS_OFFSET = 128;
+
+  // a slot is the ms after the start of its batch the event is due, its flags, and a packed event.
+  static public final int SLOT_OFFSET_MS_OFFSET = 0;
+  static public final int SLOT_FLAGS_OFFSET = 4;
+  static public final int SLOT_EVENT_OFFSET = 8;
+  static public final int SLOT_BYTES = SLOT_EVENT_OFFSET + 4 * FluidSynth.EVENT_SIZE;
+
+  // marks the note whose onset FluidSynth.getLastOnsetNanos reports.
+  static public final int FLAG_ONSET = 1;
+  // marks the first event of an offer, which the offsets of the batch are measured from.
+  static public final int FLAG_BATCH_START = 2;
+
+  private final int capacity;
+  private final ByteBuffer buffer;
+
+  // only touched by the producer.
+  private int writeIndex;
+  private int cancelSequence;
+
+  // see publish.
+  private volatile int fence;
+
+  public EventRing(int capacity) {
+    if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+      String error = String.format("event ring capacity must be a power of two, got %d", capacity);
+      throw new IllegalStateException(error);
+    }
+
+    this.capacity = capacity;
+    buffer = ByteBuffer.allocateDirect(SLOTS_OFFSET + capacity * SLOT_BYTES).order(ByteOrder.nativeOrder());
+  }
+
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  // the slots the consumer hasn't freed yet. Never less than the true count.
+  public int getPending() {
+    return writeIndex - buffer.getInt(READ_INDEX_OFFSET);
+  }
+
+  // queues the first count packed events as a batch, each due offsetsMs[i] after the batch starts,
+  // with offsets ascending. The first note on is flagged FLAG_ONSET. Queues nothing and returns false
+  // if they don't all fit.
+  public boolean offer(int[] events, int[] offsetsMs, int count) {
+    if (count > capacity - getPending()) return false;
+
+    boolean onsetFlagged = false;
+    for (int i = 0; i < count; i++) {
+      int offset = i * FluidSynth.EVENT_SIZE;
+      int flags = i == 0 ? FLAG_BATCH_START : 0;
+      if (!onsetFlagged && events[offset] == FluidSynth.EVENT_NOTE_ON) {
+        flags |= FLAG_ONSET;
+        onsetFlagged = true;
+      }
+
+      putSlot(writeIndex + i, offsetsMs[i], events[offset], events[offset + 1], events[offset + 2],
+          events[offset + 3], flags);
+    }
+
+    writeIndex += count;
+    publish(WRITE_INDEX_OFFSET, writeIndex);
+    return true;
+  }
+
+  // drops every queued event that hasn't been applied yet and releases the sounding notes, or
+  // silences them at once with cutSound. Events offered afterwards play as usual.
+  public void cancel(boolean cutSound) {
+    buffer.putInt(CANCEL_INDEX_OFFSET, writeIndex);
+    buffer.putInt(CANCEL_CUT_SOUND_OFFSET, cutSound ? 1 : 0);
+
+    cancelSequence += 1;
+    publish(CANCEL_SEQUENCE_OFFSET, cancelSequence);
+  }
+
+  private void putSlot(int index, int offsetMs, int type, int channel, int key, int velocity, int flags) {
+    int slot = SLOTS_OFFSET + (index & (capacity - 1)) * SLOT_BYTES;
+    buffer.putInt(slot + SLOT_OFFSET_MS_OFFSET, offsetMs);
+    buffer.putInt(slot + SLOT_FLAGS_OFFSET, flags);
+    buffer.putInt(slot + SLOT_EVENT_OFFSET, type);
+    buffer.putInt(slot + SLOT_EVENT_OFFSET + 4, channel);
+    buffer.putInt(slot + SLOT_EVENT_OFFSET + 8, key);
+    buffer.putInt(slot + SLOT_EVENT_OFFSET + 12, velocity);
+  }
+
+  // a buffer has no ordered puts before API 33, so the writes before the published value are ordered
+  // ahead of it by a volatile write and read back to back, which acts as a full fence.
+  private void publish(int offset, int value) {
+    fence = value;
+    int ignored = fence;
+
+    buffer.putInt(offset, value);
+  }
+}
@@ -0,0 +1,156 @@
+package dk.rmls.musicgap;
+
+import static dk.rmls.musicgap.MainActivity.Dyad;
+
+import java.util.Arrays;
+
+// What the player hears for one question: up to MAX_NOTES notes, each with its own onset and duration.
+// Melodic and harmonic intervals and short melodies only differ in their onsets.
+//
+// Two exercises with the same notes are equal, so an exercise can be used as a clip cache key.
+public class Exercise {
+
+  static public final int MAX_NOTES = 8;
+
+  public int noteCount;
+  public final int[] keys = new int[MAX_NOTES];
+  public final int[] onsetsMs = new int[MAX_NOTES];
+  public final int[] durationsMs = new int[MAX_NOTES];
+
+  public void clear() {
+    noteCount = 0;
+  }
+
+  public void addNote(int key, int onsetMs, int durationMs) {
+    if (noteCount == MAX_NOTES) {
+      String error = String.format("an exercise holds at most %d notes", MAX_NOTES);
+      throw new IllegalStateException(error);
+    }
+
+    keys[noteCount] = key;
+    onsetsMs[noteCount] = onsetMs;
+    durationsMs[noteCount] = durationMs;
+    noteCount += 1;
+  }
+
+  public void copyFrom(Exercise other) {
+    noteCount = other.noteCount;
+    System.arraycopy(other.keys, 0, keys, 0, noteCount);
+    System.arraycopy(other.onsetsMs, 0, onsetsMs, 0, noteCount);
+    System.arraycopy(other.durationsMs, 0, durationsMs, 0, noteCount);
+  }
+
+  // when the last note ends.
+  public int getLengthMs() {
+    int result = 0;
+    for (int i = 0; i < noteCount; i++) {
+      result = Math.max(result, onsetsMs[i] + durationsMs[i]);
+    }
+    return result;
+  }
+
+  // fills events with a note on and a note off per note, packed as in FluidSynth, with their offsets
+  // in ascending order, and returns the event count. At equal offsets note offs come first, so a
+  // repeated key is struck again instead of being cut off.
+  public int getEvents(int[] events, int[] offsetsMs, int velocity) {
+    int count = 0;
+    for (int i = 0; i < noteCount; i++) {
+      offsetsMs[count] = onsetsMs[i];
+      count = putEvent(events, count, FluidSynth.EVENT_NOTE_ON, keys[i], velocity);
+
+      offsetsMs[count] = onsetsMs[i] + durationsMs[i];
+      count = putEvent(events, count, FluidSynth.EVENT_NOTE_OFF, keys[i], 0);
+    }
+
+    // insertion sort, there are at most 2 * MAX_NOTES events.
+    for (int i = 1; i < count; i++) {
+      for (int j = i; j > 0 && isBefore(events, offsetsMs, j, j - 1); j--) {
+        swapEvents(events, offsetsMs, j, j - 1);
+      }
+    }
+
+    return count;
+  }
+
+  static public void setMelodicInterval(Exercise out, Dyad dyad, int spacingMs) {
+    out.clear();
+    out.addNote(dyad.noteA, 0, spacingMs);
+    out.addNote(dyad.noteB, spacingMs, spacingMs);
+  }
+
+  static public void setHarmonicInterval(Exercise out, Dyad dyad, int durationMs) {
+    out.clear();
+    out.addNote(dyad.noteA, 0, durationMs);
+    out.addNote(dyad.noteB, 0, durationMs);
+  }
+
+  static public void setMelody(Exercise out, int[] keys, int spacingMs) {
+    out.clear();
+    for (int i = 0; i < keys.length; i++) {
+      out.addNote(keys[i], i * spacingMs, spacingMs);
+    }
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (!(object instanceof Exercise)) return false;
+
+    Exercise other = (Exercise) object;
+    if (noteCount != other.noteCount) return false;
+
+    for (int i = 0; i < noteCount; i++) {
+      if (keys[i] != other.keys[i]
+          || onsetsMs[i] != other.onsetsMs[i]
+          || durationsMs[i] != other.durationsMs[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = noteCount;
+    for (int i = 0; i < noteCount; i++) {
+      result = 31 * result + keys[i];
+      result = 31 * result + onsetsMs[i];
+      result = 31 * result + durationsMs[i];
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s @ %s ms", Arrays.toString(Arrays.copyOf(keys, noteCount)),
+        Arrays.toString(Arrays.copyOf(onsetsMs, noteCount)));
+  }
+
+  // like FluidSynth.putEvent, but without loading the native library, so exercises work in host tests.
+  static private int putEvent(int[] events, int index, int type, int key, int velocity) {
+    int offset = index * FluidSynth.EVENT_SIZE;
+    events[offset] = type;
+    events[offset + 1] = 0;
+    events[offset + 2] = key;
+    events[offset + 3] = velocity;
+    return index + 1;
+  }
+
+  static private boolean isBefore(int[] events, int[] offsetsMs, int a, int b) {
+    if (offsetsMs[a] != offsetsMs[b]) return offsetsMs[a] < offsetsMs[b];
+
+    return events[a * FluidSynth.EVENT_SIZE] == FluidSynth.EVENT_NOTE_OFF
+        && events[b * FluidSynth.EVENT_SIZE] == FluidSynth.EVENT_NOTE_ON;
+  }
+
+  static private void swapEvents(int[] events, int[] offsetsMs, int a, int b) {
+    int offset = offsetsMs[a];
+    offsetsMs[a] = offsetsMs[b];
+    offsetsMs[b] = offset;
+
+    for (int i = 0; i < FluidSynth.EVENT_SIZE; i++) {
+      int value = events[a * FluidSynth.EVENT_SIZE + i];
+      events[a * FluidSynth.EVENT_SIZE + i] = events[b * FluidSynth.EVENT_SIZE + i];
+      events[b * FluidSynth.EVENT_SIZE + i] = value;
+    }
+  }
+}
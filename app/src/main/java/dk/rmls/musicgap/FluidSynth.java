@@ -1,21 +1,210 @@
 package dk.rmls.musicgap;
 
+import android.content.res.AssetManager;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+// JNI bindings for FluidSynth. Every synth lives behind a handle returned by create or createRenderer,
+// so several synths can run side by side. Calls on a closed or unknown handle fail with FLUID_FAILED.
 public class FluidSynth {
 
     static {
         System.loadLibrary("musicgap");
     }
 
-    static public int FLUID_OK = 1;
-    static public int FLUID_FAILED = -1;
+    static public final int FLUID_OK = 0;
+    static public final int FLUID_FAILED = -1;
+
+    // packed events are laid out as (type, channel, key, velocity).
+    static public final int EVENT_NOTE_ON = 0;
+    static public final int EVENT_NOTE_OFF = 1;
+    static public final int EVENT_SIZE = 4;
+
+    static public final int AUDIO_INFO_PROFILE = 0;
+    static public final int AUDIO_INFO_PERIOD_SIZE = 1;
+    static public final int AUDIO_INFO_PERIODS = 2;
+    static public final int AUDIO_INFO_SAMPLE_RATE = 3;
+    static public final int AUDIO_INFO_UNDERRUNS = 4;
+    static public final int AUDIO_INFO_SIZE = 5;
+
+    static public final int MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL = 0;
+    static public final int MEMORY_INFO_NATIVE_HEAP_BYTES = 1;
+    static public final int MEMORY_INFO_SIZE = 2;
+
+    static public final int STATS_CPU_LOAD_PERMILLE = 0;
+    static public final int STATS_ACTIVE_VOICES = 1;
+    static public final int STATS_POLYPHONY = 2;
+    static public final int STATS_UNDERRUNS = 3;
+    static public final int STATS_SOUND_FONT_BYTES_READ_TOTAL = 4;
+    static public final int STATS_NATIVE_HEAP_BYTES = 5;
+    static public final int STATS_SIZE = 6;
+
+    static public final int EXPORT_TYPE_WAV = 0;
+    static public final int EXPORT_TYPE_FLAC = 1;
+    static public final int EXPORT_TYPE_OGG = 2;
+
+    static public class AudioConfig {
+
+        // the order must match PROFILE_* in native-lib.cpp.
+        static public enum Profile {
+            lowLatency,
+            powerSaving,
+            compatibility,
+        }
+
+        public Profile profile;
+
+        // 0 keeps the driver default.
+        public int periodSize;
+        public int periods;
+
+        // the most voices sounding at once, 0 keeps the synth default of 256.
+        public int polyphony;
+
+        // only load the samples of the presets in use, instead of the whole soundfont.
+        public boolean dynamicSampleLoading;
+
+        static public AudioConfig lowLatency() {
+            AudioConfig result = new AudioConfig();
+            result.profile = Profile.lowLatency;
+            result.periodSize = 64;
+            result.periods = 2;
+            result.polyphony = 32;
+            result.dynamicSampleLoading = true;
+            return result;
+        }
+
+        static public AudioConfig powerSaving() {
+            AudioConfig result = new AudioConfig();
+            result.profile = Profile.powerSaving;
+            result.periodSize = 1024;
+            result.periods = 4;
+            result.polyphony = 32;
+            result.dynamicSampleLoading = true;
+            return result;
+        }
+
+        static public AudioConfig compatibility() {
+            AudioConfig result = new AudioConfig();
+            result.profile = Profile.compatibility;
+            result.periodSize = 0;
+            result.periods = 0;
+            result.polyphony = 0;
+            result.dynamicSampleLoading = false;
+            return result;
+        }
+    }
+
+    static public long create() {
+        return create(AudioConfig.compatibility());
+    }
+
+    // falls back to shared mode, and then to the compatibility profile, if the device refuses the driver.
+    // returns 0 if no driver could be created.
+    static public long create(AudioConfig config) {
+        return createWithConfig(config.profile.ordinal(), config.periodSize, config.periods, config.polyphony,
+                config.dynamicSampleLoading);
+    }
+
+    static private native long createWithConfig(int profile, int periodSize, int periods, int polyphony,
+                                                boolean dynamicSampleLoading);
+
+    // a synth without an audio driver, for renderEvents. Returns 0 if it can't be created.
+    static public native long createRenderer(int sampleRate, boolean dynamicSampleLoading);
+
+    static public native int close(long handle);
+
+    // releases the audio device but keeps the synth and its soundfonts loaded. Other calls on the synth
+    // don't wait while the device is closed here or reopened by resumeAudio.
+    static public native int pauseAudio(long handle);
+
+    static public native int resumeAudio(long handle);
+
+    // fills out[AUDIO_INFO_*] with the driver configuration that was actually applied and the underrun count.
+    static public native int getAudioInfo(long handle, int[] out);
+
+    static public float getBufferLatencyMs(int[] audioInfo) {
+        int frames = audioInfo[AUDIO_INFO_PERIOD_SIZE] * audioInfo[AUDIO_INFO_PERIODS];
+        return frames * 1000f / audioInfo[AUDIO_INFO_SAMPLE_RATE];
+    }
+
+    // fills out[MEMORY_INFO_*]: the soundfont bytes the synth's sfload calls have read in total, by path or
+    // from the assets, and the native heap allocated by the whole process. The byte count only grows, so
+    // it compares loads but isn't the sample memory the synth holds.
+    static public native int getMemoryInfo(long handle, long[] out);
+
+    // fills out[STATS_*] without allocating: the synth's cpu load in tenths of a percent, its sounding voices
+    // and voice limit, driver underruns, and getMemoryInfo: its own soundfont bytes read and the process-wide heap.
+    static public native int getStats(long handle, long[] out);
+
+    // System.nanoTime() at which the first note of the last scheduleEvents call was heard, estimated
+    // from when it was rendered plus the device buffer. 0 until a scheduled note has been rendered.
+    static public native long getLastOnsetNanos(long handle);
+
+    static public native int loadSoundFont(long handle, String filename);
+
+    // reads the soundfont directly from the APK, memory-mapped when the asset is stored uncompressed.
+    static public native int loadSoundFontFromAssets(long handle, AssetManager assetManager, String assetPath);
+
+    static public native int noteOn(long handle, int channel, int key, int velocity);
+
+    static public native int noteOff(long handle, int channel, int key);
 
-    static public native int init();
+    // applies the first count packed events in a single native call.
+    static public native int sendEvents(long handle, int[] events, int count);
 
-    static public native int deinit();
+    // same as sendEvents, but reads the packed events from a direct buffer in native byte order.
+    static public native int sendEventBuffer(long handle, IntBuffer events, int count);
+
+    // renders the first count packed events, each at its frame offset (ascending), into out as interleaved
+    // stereo. Only for renderers.
+    static public native int renderEvents(long handle, int[] events, int[] frameOffsets, int count, short[] out);
+
+    // plays the first length bytes of data, a standard MIDI file, on the synth's own clock. loops of -1
+    // repeats it until stopped. Replaces any earlier MIDI playback. Only for live synths.
+    static public native int playMidi(long handle, byte[] data, int length, int loops);
+
+    // same as playMidi, but reads the MIDI file at path.
+    static public native int playMidiFile(long handle, String path, int loops);
+
+    static public native int stopMidi(long handle);
+
+    // scales the tempo of the MIDI file, so 0.5 plays it at half speed.
+    static public native int setMidiTempo(long handle, double multiplier);
+
+    static public native int seekMidi(long handle, int tick);
+
+    // the current tick of the MIDI playback, or FLUID_FAILED if it isn't playing.
+    static public native int getMidiTick(long handle);
+
+    // starts encoding everything renderEventsToExport renders into the file at path, as one of
+    // EXPORT_TYPE_*. Only for renderers, with one export open at a time.
+    static public native int openExport(long handle, String path, int fileType);
+
+    // like renderEvents, but into the open export, in whole blocks of 64 frames with each event applied
+    // at the start of its block. Returns the number of frames written, at least frames, or FLUID_FAILED.
+    static public native int renderEventsToExport(long handle, int[] events, int[] frameOffsets, int count, int frames);
+
+    static public native int closeExport(long handle);
+
+    static public int putEvent(int[] events, int index, int type, int channel, int key, int velocity) {
+        int offset = index * EVENT_SIZE;
+        events[offset] = type;
+        events[offset + 1] = channel;
+        events[offset + 2] = key;
+        events[offset + 3] = velocity;
+        return index + 1;
+    }
 
-    static public native int loadSoundFont(String filename);
+    // drops the scheduled events that haven't played yet and releases the sounding notes, or silences
+    // them at once with cutSound, so the next playback supersedes the current one.
+    static public native int cancelScheduledEvents(long handle, boolean cutSound);
 
-    static public native int noteOn(int channel, int key, int velocity);
+    // hands a live synth the buffer of an EventRing with capacity slots, which its audio thread drains
+    // at the start of every block from then on. A synth takes one ring for its lifetime.
+    static public native int attachEventRing(long handle, ByteBuffer ring, int capacity);
 
-    static public native int noteOff(int channel, int key);
+    // schedules the first count packed events on the native sequencer, each offsetsMs[i] after now.
+    static public native int scheduleEvents(long handle, int[] events, int[] offsetsMs, int count);
 }
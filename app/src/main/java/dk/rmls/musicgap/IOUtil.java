@@ -1,12 +1,10 @@
 package dk.rmls.musicgap;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -18,25 +16,6 @@ public class IOUtil {
     static private final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
     static private final int DEFAULT_BUFFER_SIZE = 8192;
 
-    static public void copyAssetToAppStorage(Context context, String src, String dst) {
-        try {
-            AssetManager assetManager = context.getAssets();
-            InputStream input = assetManager.open(src);
-
-            byte[] content = readAllBytes(input);
-
-            OutputStream output = context.openFileOutput(dst, Context.MODE_PRIVATE);
-            output.write(content);
-            output.flush();
-
-            input.close();
-            output.close();
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     static public Path getAppStoragePath(Context context, String filename) {
         File fileDir = context.getFilesDir();
         return Paths.get(fileDir.getPath(), filename);
@@ -0,0 +1,331 @@
+package dk.rmls.musicgap;
+
+import static dk.rmls.musicgap.MainActivity.IntervalButtonState;
+import static dk.rmls.musicgap.MainActivity.UITheme;
+import static dk.rmls.musicgap.UIUtil.dp;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.util.TypedValue;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+import android.widget.Button;
+
+import androidx.core.view.ViewCompat;
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import androidx.customview.widget.ExploreByTouchHelper;
+
+import java.util.List;
+
+// The answer buttons of an AnswerSet, drawn by a single view. The cell bounds are computed once per
+// size change, so a touch is hit-tested against plain arrays, and nothing is allocated between the
+// touch and the redraw.
+//
+// The button states are shared with the caller, who calls updateStates() after changing them.
+//
+// Each cell is exposed to accessibility services as a virtual view, so TalkBack can read and press it.
+public class IntervalKeypadView extends View {
+
+  static public interface OnAnswerListener {
+    public void onAnswer(int answer);
+  }
+
+  static private final float CORNER_RADIUS_PX = 8f;
+  static private final float TEXT_SIZE_SP = 14f;
+
+  private final AnswerSet answerSet;
+  private final IntervalButtonState[] states;
+  private final UITheme theme;
+  private final OnAnswerListener listener;
+
+  private final String[] labels;
+  private final int marginPx;
+  private final int paddingPx;
+
+  // per answer, set in onSizeChanged.
+  private final float[] cellLeft, cellTop, cellRight, cellBottom;
+
+  // per answer, the color the last draw used, so unchanged states don't trigger a redraw.
+  private final int[] drawnColors;
+
+  private final Paint cellPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+  private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+  private final RectF cellRect = new RectF();
+  private final float textHeight;
+  private final float textBaselineOffset;
+
+  // the answer under a touch that hasn't left its cell yet, or -1.
+  private int pressedAnswer = -1;
+
+  private final AccessibilityHelper accessibilityHelper;
+
+  public IntervalKeypadView(Context context, AnswerSet answerSet, IntervalButtonState[] states, UITheme theme,
+                            OnAnswerListener listener) {
+    super(context);
+    this.answerSet = answerSet;
+    this.states = states;
+    this.theme = theme;
+    this.listener = listener;
+
+    // like the buttons this view replaces.
+    labels = new String[answerSet.size()];
+    for (int i = 0; i < labels.length; i++) {
+      labels[i] = answerSet.names[i].toUpperCase();
+    }
+
+    marginPx = dp(context, 2);
+    paddingPx = dp(context, 18);
+
+    cellLeft = new float[answerSet.size()];
+    cellTop = new float[answerSet.size()];
+    cellRight = new float[answerSet.size()];
+    cellBottom = new float[answerSet.size()];
+
+    drawnColors = new int[answerSet.size()];
+
+    textPaint.setColor(theme.intervalButton.textColor);
+    textPaint.setTextAlign(Paint.Align.CENTER);
+    textPaint.setTypeface(Typeface.create("sans-serif-medium", Typeface.NORMAL));
+    textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, TEXT_SIZE_SP,
+        getResources().getDisplayMetrics()));
+
+    Paint.FontMetrics metrics = textPaint.getFontMetrics();
+    textHeight = metrics.descent - metrics.ascent;
+    textBaselineOffset = -(metrics.ascent + metrics.descent) / 2;
+
+    accessibilityHelper = new AccessibilityHelper();
+    ViewCompat.setAccessibilityDelegate(this, accessibilityHelper);
+  }
+
+  // redraws if any button changed color since the last draw.
+  public void updateStates() {
+    for (int i = 0; i < states.length; i++) {
+      if (getColor(i) != drawnColors[i]) {
+        invalidate();
+        accessibilityHelper.invalidateRoot();
+        return;
+      }
+    }
+  }
+
+  @Override
+  protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+    int rowHeight = (int) Math.ceil(textHeight) + 2 * paddingPx + 2 * marginPx;
+    int height = rowHeight * answerSet.layout.length + getPaddingTop() + getPaddingBottom();
+
+    setMeasuredDimension(getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec),
+        resolveSize(height, heightMeasureSpec));
+  }
+
+  @Override
+  protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+    int[][] layout = answerSet.layout;
+
+    float left = getPaddingLeft();
+    float top = getPaddingTop();
+    float rowHeight = (height - getPaddingTop() - getPaddingBottom()) / (float) layout.length;
+
+    for (int r = 0; r < layout.length; r++) {
+      float cellWidth = (width - getPaddingLeft() - getPaddingRight()) / (float) layout[r].length;
+
+      for (int c = 0; c < layout[r].length; c++) {
+        int answer = layout[r][c];
+        if (answer == -1) continue;
+
+        cellLeft[answer] = left + c * cellWidth + marginPx;
+        cellTop[answer] = top + r * rowHeight + marginPx;
+        cellRight[answer] = left + (c + 1) * cellWidth - marginPx;
+        cellBottom[answer] = top + (r + 1) * rowHeight - marginPx;
+      }
+    }
+
+    accessibilityHelper.invalidateRoot();
+  }
+
+  @Override
+  protected void onDraw(Canvas canvas) {
+    for (int i = 0; i < states.length; i++) {
+      int color = getColor(i);
+      drawnColors[i] = color;
+
+      cellRect.set(cellLeft[i], cellTop[i], cellRight[i], cellBottom[i]);
+      cellPaint.setColor(color);
+      canvas.drawRoundRect(cellRect, CORNER_RADIUS_PX, CORNER_RADIUS_PX, cellPaint);
+
+      canvas.drawText(labels[i], cellRect.centerX(), cellRect.centerY() + textBaselineOffset, textPaint);
+    }
+  }
+
+  @Override
+  public boolean onTouchEvent(MotionEvent event) {
+    float x = event.getX();
+    float y = event.getY();
+
+    switch (event.getActionMasked()) {
+      case MotionEvent.ACTION_DOWN:
+        int answer = findAnswer(x, y);
+        if (answer != -1 && states[answer] == IntervalButtonState.notGuessed) {
+          setPressedAnswer(answer);
+        }
+        return true;
+
+      case MotionEvent.ACTION_MOVE:
+        if (pressedAnswer != -1 && !isInside(pressedAnswer, x, y)) {
+          setPressedAnswer(-1);
+        }
+        return true;
+
+      case MotionEvent.ACTION_UP:
+        int pressed = pressedAnswer;
+        setPressedAnswer(-1);
+        if (pressed != -1) {
+          performClick();
+          submitAnswer(pressed);
+        }
+        return true;
+
+      case MotionEvent.ACTION_CANCEL:
+        setPressedAnswer(-1);
+        return true;
+
+      default:
+        return false;
+    }
+  }
+
+  // a tap on a cell goes through here as well, for the click sound and accessibility event of the view.
+  // The answer itself is given by the cell.
+  @Override
+  public boolean performClick() {
+    return super.performClick();
+  }
+
+  @Override
+  protected boolean dispatchHoverEvent(MotionEvent event) {
+    return accessibilityHelper.dispatchHoverEvent(event) || super.dispatchHoverEvent(event);
+  }
+
+  @Override
+  public boolean dispatchKeyEvent(KeyEvent event) {
+    return accessibilityHelper.dispatchKeyEvent(event) || super.dispatchKeyEvent(event);
+  }
+
+  @Override
+  protected void onFocusChanged(boolean gainFocus, int direction, Rect previouslyFocusedRect) {
+    super.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+    accessibilityHelper.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+  }
+
+  private void submitAnswer(int answer) {
+    accessibilityHelper.sendEventForVirtualView(answer, AccessibilityEvent.TYPE_VIEW_CLICKED);
+    listener.onAnswer(answer);
+  }
+
+  private void setPressedAnswer(int answer) {
+    if (answer == pressedAnswer) return;
+
+    pressedAnswer = answer;
+    invalidate();
+  }
+
+  private int getColor(int answer) {
+    if (answer == pressedAnswer) return theme.intervalButton.hoverColor;
+
+    IntervalButtonState state = states[answer];
+    switch (state) {
+      case notGuessed:
+        return theme.intervalButton.notGuessedColor;
+      case guessed:
+        return theme.intervalButton.guessedColor;
+      case locked:
+        return theme.intervalButton.lockedColor;
+      default:
+        String error = String.format("unexpected interval button state: %s.", state);
+        throw new IllegalStateException(error);
+    }
+  }
+
+  static private String getStateDescription(IntervalButtonState state) {
+    switch (state) {
+      case notGuessed:
+        return null;
+      case guessed:
+        return "guessed";
+      case locked:
+        return "locked";
+      default:
+        String error = String.format("unexpected interval button state: %s.", state);
+        throw new IllegalStateException(error);
+    }
+  }
+
+  private int findAnswer(float x, float y) {
+    for (int i = 0; i < states.length; i++) {
+      if (isInside(i, x, y)) return i;
+    }
+    return -1;
+  }
+
+  private boolean isInside(int answer, float x, float y) {
+    return x >= cellLeft[answer] && x < cellRight[answer] && y >= cellTop[answer] && y < cellBottom[answer];
+  }
+
+  // the virtual view ids are the answers.
+  private class AccessibilityHelper extends ExploreByTouchHelper {
+
+    private final Rect bounds = new Rect();
+
+    AccessibilityHelper() {
+      super(IntervalKeypadView.this);
+    }
+
+    @Override
+    protected int getVirtualViewAt(float x, float y) {
+      int answer = findAnswer(x, y);
+      return answer != -1 ? answer : INVALID_ID;
+    }
+
+    @Override
+    protected void getVisibleVirtualViews(List<Integer> virtualViewIds) {
+      for (int i = 0; i < states.length; i++) {
+        virtualViewIds.add(i);
+      }
+    }
+
+    @Override
+    protected void onPopulateNodeForVirtualView(int answer, AccessibilityNodeInfoCompat node) {
+      boolean clickable = states[answer] == IntervalButtonState.notGuessed;
+
+      node.setClassName(Button.class.getName());
+      node.setContentDescription(answerSet.names[answer]);
+      node.setStateDescription(getStateDescription(states[answer]));
+      node.setEnabled(clickable);
+      node.setClickable(clickable);
+      if (clickable) {
+        node.addAction(AccessibilityNodeInfoCompat.ACTION_CLICK);
+      }
+
+      cellRect.set(cellLeft[answer], cellTop[answer], cellRight[answer], cellBottom[answer]);
+      cellRect.roundOut(bounds);
+      node.setBoundsInParent(bounds);
+    }
+
+    @Override
+    protected boolean onPerformActionForVirtualView(int answer, int action, Bundle arguments) {
+      if (action != AccessibilityNodeInfoCompat.ACTION_CLICK
+          || states[answer] != IntervalButtonState.notGuessed) {
+        return false;
+      }
+
+      submitAnswer(answer);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package dk.rmls.musicgap;
+
+import java.util.Arrays;
+
+// A fixed-size histogram of durations with log-linear buckets, like HdrHistogram: each power of two is
+// split into SUB_BUCKETS / 2 linear buckets, so every recorded value is kept to within about 3%. Recording
+// is O(1) and never allocates.
+public class LatencyHistogram {
+
+  static private final int SUB_BUCKET_BITS = 6;
+  static private final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // 2^31 - 1 microseconds, about 36 minutes. Larger values are clamped.
+  static private final int HIGHEST_MAGNITUDE = 30;
+  static private final long HIGHEST_VALUE = (1L << (HIGHEST_MAGNITUDE + 1)) - 1;
+
+  public final String name;
+
+  private final int[] counts = new int[getBucket(HIGHEST_VALUE) + 1];
+  private long count;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max;
+
+  public LatencyHistogram(String name) {
+    this.name = name;
+  }
+
+  public void recordNanos(long nanos) {
+    record(nanos / 1000);
+  }
+
+  public void record(long micros) {
+    long value = Math.max(0, Math.min(HIGHEST_VALUE, micros));
+
+    counts[getBucket(value)] += 1;
+    count += 1;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  // the value at or below which the given percentage of recorded values fall, in microseconds.
+  public long getValueAtPercentile(double percentile) {
+    if (count == 0) return 0;
+
+    long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      seen += counts[bucket];
+      if (seen >= target) {
+        return Math.min(max, getHighestValue(bucket));
+      }
+    }
+    return max;
+  }
+
+  public void reset() {
+    Arrays.fill(counts, 0);
+    count = 0;
+    sum = 0;
+    min = Long.MAX_VALUE;
+    max = 0;
+  }
+
+  public void appendTo(StringBuilder out) {
+    out.append(name).append(": n=").append(count);
+    if (count > 0) {
+      out.append(String.format(" min=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f mean=%.1f ms",
+          min / 1000.0, getValueAtPercentile(50) / 1000.0, getValueAtPercentile(90) / 1000.0,
+          getValueAtPercentile(99) / 1000.0, max / 1000.0, sum / 1000.0 / count));
+    }
+    out.append('\n');
+  }
+
+  // values below SUB_BUCKETS get a bucket each. Above that, the top SUB_BUCKET_BITS bits of the value
+  // pick one of the SUB_BUCKETS / 2 buckets of its power of two.
+  static int getBucket(long value) {
+    if (value < SUB_BUCKETS) return (int) value;
+
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int shift = magnitude - (SUB_BUCKET_BITS - 1);
+    return shift * (SUB_BUCKETS / 2) + (int) (value >>> shift);
+  }
+
+  static long getHighestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) return bucket;
+
+    int shift = bucket / (SUB_BUCKETS / 2) - 1;
+    long top = bucket - shift * (SUB_BUCKETS / 2);
+    return ((top + 1) << shift) - 1;
+  }
+}
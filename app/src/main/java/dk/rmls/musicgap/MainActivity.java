@@ -1,30 +1,28 @@
 package dk.rmls.musicgap;
 
-import static dk.rmls.musicgap.UIUtil.Button2;
-import static dk.rmls.musicgap.UIUtil.SimpleTouchListener;
 import static dk.rmls.musicgap.UIUtil.dp;
 
 import android.graphics.Color;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
-import android.widget.TableLayout;
-import android.widget.TableRow;
 import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.graphics.ColorUtils;
 
-import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.util.ArrayDeque;
 import java.util.stream.IntStream;
 
 public class MainActivity extends AppCompatActivity {
 
+  static private final String TAG = "musicgap";
+
   static public enum IntervalButtonState {
     notGuessed,
     guessed,
@@ -37,6 +35,9 @@ public class MainActivity extends AppCompatActivity {
 
   static public class AppState {
     public IntervalSettings intervalSettings;
+    public DyadGenerator dyadGenerator;
+    public AdaptiveScheduler scheduler;
+    public StatsStore statsStore;
     public IntervalGameState gameState;
     public UIState uiState;
   }
@@ -44,12 +45,26 @@ public class MainActivity extends AppCompatActivity {
   static public class IntervalGameState {
     public int correctGuesses, totalGuesses;
     public Dyad intervalToGuess;
+    public long intervalAskedAtMs;
+
+    // the notes played for intervalToGuess, and scratch space for the upcoming ones.
+    public Exercise exercise;
+    public Exercise upcomingExercise;
+
+    // generated ahead of time, so their audio is rendered before they are asked.
+    public ArrayDeque<Dyad> upcomingIntervals;
+  }
+
+  static public enum IntervalMode {
+    melodic,
+    harmonic,
   }
 
   static public class IntervalSettings {
     public int lowestNote;
     public int highestNote;
     public int[] intervals;
+    public IntervalMode mode = IntervalMode.melodic;
   }
 
   static public class UITheme {
@@ -59,6 +74,7 @@ public class MainActivity extends AppCompatActivity {
       public int guessedColor;
       public int lockedColor;
       public int hoverColor;
+      public int textColor;
     }
 
     public IntervalButtonColor intervalButton;
@@ -67,18 +83,14 @@ public class MainActivity extends AppCompatActivity {
   static public class UIState {
     public UITheme theme;
 
-    public List<Button> intervalButtons;
-    public String[] intervalNames;
+    public IntervalKeypadView intervalKeypad;
+    public AnswerSet answerSet;
     public IntervalButtonState[] intervalButtonStates;
 
     public TextView scoreDisplay;
     public ImageView replayIcon;
   }
 
-  static public interface CustomOnClickListener {
-    public void onClick(View view, Object customData);
-  }
-
   static private int[] getValidIntervals(int maxInterval, int[] candidateIntervals) {
     return IntStream.of(candidateIntervals).filter(interval -> Math.abs(interval) <= maxInterval).toArray();
   }
@@ -109,6 +121,35 @@ public class MainActivity extends AppCompatActivity {
     return result;
   }
 
+  // answered dyads are handed back through recycled and refilled, so a full round allocates no dyads.
+  static private void fillUpcomingIntervals(IntervalGameState gameState, IntervalSettings settings,
+                                            AdaptiveScheduler scheduler, Dyad recycled) {
+    while (gameState.upcomingIntervals.size() < PREFETCHED_INTERVALS) {
+      Dyad dyad = recycled != null ? recycled : new Dyad();
+      recycled = null;
+
+      scheduler.next(dyad);
+      gameState.upcomingIntervals.add(dyad);
+
+      setExercise(settings, dyad, gameState.upcomingExercise);
+      AudioEngine.prerender(gameState.upcomingExercise);
+    }
+  }
+
+  static public void setExercise(IntervalSettings settings, Dyad dyad, Exercise out) {
+    switch (settings.mode) {
+      case melodic:
+        Exercise.setMelodicInterval(out, dyad, NOTE_SPACING_MS);
+        break;
+      case harmonic:
+        Exercise.setHarmonicInterval(out, dyad, HARMONIC_NOTE_MS);
+        break;
+      default:
+        String error = String.format("unexpected interval mode: %s.", settings.mode);
+        throw new IllegalStateException(error);
+    }
+  }
+
   static public int getIntervalWithSign(Dyad dyad) {
     return dyad.noteB - dyad.noteA;
   }
@@ -117,14 +158,21 @@ public class MainActivity extends AppCompatActivity {
     return Math.abs(dyad.noteB - dyad.noteA);
   }
 
-  static private String getScoreDisplayText(UIState uiState, IntervalGameState gameState) {
+  static String getScoreDisplayText(UIState uiState, IntervalGameState gameState) {
     if (DEBUG) {
       int interval = getInterval(gameState.intervalToGuess);
       int intervalWithSign = getIntervalWithSign(gameState.intervalToGuess);
 
-      return String.format("%s, %d-%d (%d) %d/%d",
-          uiState.intervalNames[interval], gameState.intervalToGuess.noteA, gameState.intervalToGuess.noteB,
+      String text = String.format("%s, %d-%d (%d) %d/%d",
+          uiState.answerSet.names[interval], gameState.intervalToGuess.noteA, gameState.intervalToGuess.noteB,
           intervalWithSign, gameState.correctGuesses, gameState.totalGuesses);
+
+      if (SynthStatsSampler.getLatest(debugStats)) {
+        text += String.format("\ncpu %.1f%%, voices %d/%d, underruns %d",
+            debugStats[FluidSynth.STATS_CPU_LOAD_PERMILLE] / 10.0, debugStats[FluidSynth.STATS_ACTIVE_VOICES],
+            debugStats[FluidSynth.STATS_POLYPHONY], debugStats[FluidSynth.STATS_UNDERRUNS]);
+      }
+      return text;
     }
 
     float percentageCorrect = 100f;
@@ -142,31 +190,52 @@ public class MainActivity extends AppCompatActivity {
 
   static public boolean DEBUG = false;
 
+  // main thread only.
+  static private final long[] debugStats = new long[FluidSynth.STATS_SIZE];
+
+  static public final int NOTE_SPACING_MS = 400;
+  static public final int HARMONIC_NOTE_MS = 2 * NOTE_SPACING_MS;
+  static public final int NOTE_VELOCITY = 127;
+
+  static private final int PREFETCHED_INTERVALS = 2;
+  static private final int EXPORTED_INTERVALS = 100;
+
   private AppState state;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
 
-    CustomOnClickListener listener = (view, customData) -> {
+    IntervalKeypadView.OnAnswerListener listener = guessedInterval -> {
       UIState uiState = state.uiState;
       IntervalGameState gameState = state.gameState;
+      AdaptiveScheduler scheduler = state.scheduler;
       IntervalSettings intervalSettings = state.intervalSettings;
-
-      int guessedInterval = (int) customData;
+      StatsStore statsStore = state.statsStore;
 
       IntervalButtonState state = uiState.intervalButtonStates[guessedInterval];
       if (!isIntervalButtonClickable(state)) return;
 
       int trueInterval = getInterval(gameState.intervalToGuess);
 
+      ReactionMetrics.onAnswered();
+
+      int latencyMs = (int) (SystemClock.uptimeMillis() - gameState.intervalAskedAtMs);
+      statsStore.record(gameState.intervalToGuess.noteA, gameState.intervalToGuess.noteB, guessedInterval, latencyMs);
+      scheduler.record(gameState.intervalToGuess.noteA, gameState.intervalToGuess.noteB, guessedInterval == trueInterval);
+
       if (guessedInterval == trueInterval) {
-        resetIntervalButtonStates(uiState.intervalButtonStates);
+        Dyad answered = gameState.intervalToGuess;
+        gameState.intervalToGuess = gameState.upcomingIntervals.poll();
+        gameState.intervalAskedAtMs = SystemClock.uptimeMillis();
+        // queued on the event ring before this handler returns, so the question starts in the same frame
+        // as the feedback. A cached clip would start on the ClipPlayer thread.
+        requestPlayback(false);
 
+        resetIntervalButtonStates(uiState.intervalButtonStates);
         gameState.correctGuesses += 1;
-        gameState.intervalToGuess = generateRandomDyad(
-            intervalSettings.lowestNote, intervalSettings.highestNote, intervalSettings.intervals
-        );
+
+        fillUpcomingIntervals(gameState, intervalSettings, scheduler, answered);
 
       } else {
         uiState.intervalButtonStates[guessedInterval] = IntervalButtonState.guessed;
@@ -177,7 +246,9 @@ public class MainActivity extends AppCompatActivity {
       updateIntervalButtonsBeingClickable(uiState);
       updateScoreDisplayText(uiState, gameState);
 
-      playInterval(gameState.intervalToGuess);
+      if (guessedInterval != trueInterval) {
+        requestPlayback(true);
+      }
     };
 
     IntervalSettings intervalSettings = new IntervalSettings();
@@ -185,61 +256,185 @@ public class MainActivity extends AppCompatActivity {
     intervalSettings.highestNote = 108;
     intervalSettings.intervals = IntStream.rangeClosed(-12, 12).toArray();
 
+    DyadGenerator dyadGenerator = new DyadGenerator(intervalSettings);
+    AdaptiveScheduler scheduler = new AdaptiveScheduler(dyadGenerator);
+
     IntervalGameState gameState = new IntervalGameState();
     gameState.correctGuesses = 0;
     gameState.totalGuesses = 0;
-    gameState.intervalToGuess = generateRandomDyad(intervalSettings.lowestNote, intervalSettings.highestNote, intervalSettings.intervals);
+    gameState.intervalToGuess = new Dyad();
+    scheduler.next(gameState.intervalToGuess);
+    gameState.intervalAskedAtMs = SystemClock.uptimeMillis();
+
+    StatsStore statsStore = new StatsStore(getFilesDir());
+    statsStore.open(scheduler::seed);
+    gameState.upcomingIntervals = new ArrayDeque<>();
+    gameState.exercise = new Exercise();
+    gameState.upcomingExercise = new Exercise();
 
-    UIState uiState = createUI(listener);
+    UIState uiState = createUI(AnswerSet.intervals(), listener);
     uiState.scoreDisplay.setOnClickListener(v -> {
       gameState.correctGuesses = 0;
       gameState.totalGuesses = 0;
 
       updateScoreDisplayText(uiState, gameState);
     });
-    uiState.replayIcon.setOnClickListener(v -> playInterval(gameState.intervalToGuess));
+    uiState.replayIcon.setOnClickListener(v -> requestPlayback(true));
 
     state = new AppState();
     state.intervalSettings = intervalSettings;
+    state.dyadGenerator = dyadGenerator;
+    state.scheduler = scheduler;
+    state.statsStore = statsStore;
     state.gameState = gameState;
     state.uiState = uiState;
 
     updateScoreDisplayText(state.uiState, state.gameState);
 
     String soundFontName = "Yamaha-Grand-Lite-v2.0.sf2";
-    Path soundFontPath = IOUtil.getAppStoragePath(getBaseContext(), soundFontName);
 
-    if (!soundFontPath.toFile().exists()) {
-      IOUtil.copyAssetToAppStorage(getBaseContext(), soundFontName, soundFontName);
+    AudioEngine.acquire(getApplicationContext().getAssets(), soundFontName, FluidSynth.AudioConfig.lowLatency());
+
+    // earlier versions copied the soundfont out of the APK before loading it, through a temp file that an
+    // interrupted copy left behind.
+    AudioEngine.deleteInBackground(
+        IOUtil.getAppStoragePath(getBaseContext(), soundFontName).toFile(),
+        IOUtil.getAppStoragePath(getBaseContext(), soundFontName + ".tmp").toFile());
+
+    if (DEBUG) {
+      uiState.replayIcon.setOnLongClickListener(v -> {
+        exportSession(soundFontName, intervalSettings);
+        return true;
+      });
     }
 
-    FluidSynth.init();
-    FluidSynth.loadSoundFont(soundFontPath.toString());
+    setExercise(intervalSettings, gameState.intervalToGuess, gameState.exercise);
+    AudioEngine.prerender(gameState.exercise);
+    fillUpcomingIntervals(gameState, intervalSettings, scheduler, null);
   }
 
   @Override
   protected void onStart() {
     super.onStart();
 
-    playInterval(state.gameState.intervalToGuess);
+    AudioEngine.resume();
+    requestPlayback(true);
+
+    SynthStatsSampler.start();
+    if (DEBUG) {
+      state.uiState.scoreDisplay.post(refreshDebugDisplay);
+    }
   }
 
-  static private void playInterval(Dyad interval) {
-    new Thread(() -> {
-      FluidSynth.noteOn(0, interval.noteA, 127);
+  @Override
+  protected void onStop() {
+    super.onStop();
+
+    Log.i(TAG, "reaction times\n" + ReactionMetrics.getTextDump());
+    Log.i(TAG, "synth stats\n" + SynthStatsSampler.getTextDump());
+    SynthStatsSampler.stop();
+    state.uiState.scoreDisplay.removeCallbacks(refreshDebugDisplay);
+    state.statsStore.flush();
+
+    // the next Activity picks the running driver up, so recreation doesn't reopen the audio stream.
+    if (!isChangingConfigurations()) {
+      AudioEngine.pause();
+    }
+  }
 
-      ThreadUtil.sleep(400);
+  // keeps the synth stats in the DEBUG score display current between answers.
+  private final Runnable refreshDebugDisplay = new Runnable() {
+    @Override
+    public void run() {
+      updateScoreDisplayText(state.uiState, state.gameState);
+      state.uiState.scoreDisplay.postDelayed(this, SynthStatsSampler.SAMPLE_PERIOD_MS);
+    }
+  };
+
+  // renders EXPORTED_INTERVALS fresh intervals into a FLAC file in the app's external files directory.
+  private void exportSession(String soundFontName, IntervalSettings settings) {
+    DyadGenerator generator = new DyadGenerator(settings);
+    Dyad dyad = new Dyad();
+    SessionExporter.ExerciseSource source = out -> {
+      generator.next(dyad);
+      setExercise(settings, dyad, out);
+    };
 
-      FluidSynth.noteOff(0, interval.noteA);
-      FluidSynth.noteOn(0, interval.noteB, 127);
+    File file = new File(getExternalFilesDir(null), "session.flac");
+    SessionExporter.exportInBackground(getAssets(), soundFontName, source, EXPORTED_INTERVALS, NOTE_SPACING_MS,
+        file, FluidSynth.EXPORT_TYPE_FLAC, new SessionExporter.Listener() {
 
-      ThreadUtil.sleep(400);
+          @Override
+          public void onProgress(int exported, int total) {
+            state.uiState.scoreDisplay.setText(String.format("exporting %d/%d", exported, total));
+          }
+
+          @Override
+          public void onFinished(File file, boolean success) {
+            Log.i(TAG, String.format("session export to %s %s", file, success ? "done" : "failed"));
+            updateScoreDisplayText(state.uiState, state.gameState);
+          }
+        });
+  }
 
-      FluidSynth.noteOff(0, interval.noteB);
-    }).start();
+  // replays may come from the clip cache, a new question always plays live.
+  private void requestPlayback(boolean allowClip) {
+    ReactionMetrics.onPlaybackRequested();
+    AudioEngine.runWhenReady(() -> {
+      IntervalGameState gameState = state.gameState;
+      setExercise(state.intervalSettings, gameState.intervalToGuess, gameState.exercise);
+      playExercise(gameState.exercise, allowClip);
+    });
   }
 
-  private UIState createUI(CustomOnClickListener buttonOnClickListener) {
+  // main thread only, sized for the largest exercise.
+  static private final int[] playbackEvents = new int[2 * Exercise.MAX_NOTES * FluidSynth.EVENT_SIZE];
+  static private final int[] playbackOffsetsMs = new int[2 * Exercise.MAX_NOTES];
+  // set while a playback may still be pending on the sequencer, because the ring was full or missing.
+  static private boolean playbackOnSequencer;
+
+  static private void playExercise(Exercise exercise, boolean allowClip) {
+    short[] clip = allowClip ? AudioEngine.getCachedClip(exercise) : null;
+    // a replay supersedes whatever is still playing, on either path.
+    if (clip != null) {
+      cancelLivePlayback();
+      ClipPlayer.play(clip, AudioEngine.getSampleRate());
+      ReactionMetrics.onPlaybackStarted(true);
+      return;
+    }
+
+    int count = exercise.getEvents(playbackEvents, playbackOffsetsMs, NOTE_VELOCITY);
+
+    ClipPlayer.stop();
+    cancelLivePlayback();
+
+    // the notes go through the event ring without a JNI call, or with a single one on the sequencer.
+    EventRing ring = AudioEngine.getEventRing();
+    if (ring == null || !ring.offer(playbackEvents, playbackOffsetsMs, count)) {
+      FluidSynth.scheduleEvents(AudioEngine.getSynth(), playbackEvents, playbackOffsetsMs, count);
+      playbackOnSequencer = true;
+    }
+    ReactionMetrics.onPlaybackStarted(false);
+
+    // replays of the same exercise come from the cache.
+    AudioEngine.prerender(exercise);
+  }
+
+  // the ring only drops its own events, and releases the notes on the audio thread without a JNI call.
+  // What went to the sequencer is removed by cancelScheduledEvents, which is only called when needed.
+  // The trainer never starts the MIDI player.
+  static private void cancelLivePlayback() {
+    EventRing ring = AudioEngine.getEventRing();
+    if (ring != null) {
+      ring.cancel(false);
+    }
+    if (playbackOnSequencer) {
+      FluidSynth.cancelScheduledEvents(AudioEngine.getSynth(), false);
+      playbackOnSequencer = false;
+    }
+  }
+
+  private UIState createUI(AnswerSet answerSet, IntervalKeypadView.OnAnswerListener onAnswerListener) {
     UIState result = new UIState();
 
     UITheme.IntervalButtonColor intervalButtonColor = new UITheme.IntervalButtonColor();
@@ -247,6 +442,7 @@ public class MainActivity extends AppCompatActivity {
     intervalButtonColor.guessedColor = Color.GRAY;
     intervalButtonColor.lockedColor = ColorUtils.blendARGB(Color.GRAY, Color.BLACK, 0.5f);
     intervalButtonColor.hoverColor = ColorUtils.blendARGB(intervalButtonColor.notGuessedColor, Color.BLACK, 0.3f);
+    intervalButtonColor.textColor = Color.BLACK;
 
     UITheme theme = new UITheme();
     theme.intervalButton = intervalButtonColor;
@@ -256,24 +452,9 @@ public class MainActivity extends AppCompatActivity {
     setContentView(R.layout.container);
     RelativeLayout container = findViewById(R.id.container);
 
-    int[][] intervalButtonLayout = {
-        {-1, 0},
-        {1, 2},
-        {3, 4},
-        {-1, 5},
-        {6, 7},
-        {8, 9},
-        {10, 11},
-        {-1, 12},
-    };
-
-    String[] intervalNames = {
-        "unison", "minor 2nd", "major 2rd", "minor 3rd", "major 3rd", "perfect 4th", "tritone",
-        "perfect 5th", "minor 6th", "major 6th", "minor 7th", "major 7th", "octave",
-    };
-    result.intervalNames = intervalNames;
+    result.answerSet = answerSet;
 
-    int numberOfIntervalStates = intervalNames.length;
+    int numberOfIntervalStates = answerSet.size();
     IntervalButtonState[] states = new IntervalButtonState[numberOfIntervalStates];
     for (int i = 0; i < states.length; i++) {
       states[i] = IntervalButtonState.notGuessed;
@@ -320,96 +501,20 @@ public class MainActivity extends AppCompatActivity {
     }
 
     {
-      TableLayout table = new TableLayout(this);
-      table.setId(View.generateViewId());
-      //table.setBackgroundColor(Color.BLUE);
-      RelativeLayout.LayoutParams tableLayout = new RelativeLayout.LayoutParams(
+      IntervalKeypadView keypad = new IntervalKeypadView(this, answerSet, states, theme, onAnswerListener);
+      keypad.setId(View.generateViewId());
+      RelativeLayout.LayoutParams layout = new RelativeLayout.LayoutParams(
           ViewGroup.LayoutParams.MATCH_PARENT,
           ViewGroup.LayoutParams.WRAP_CONTENT
       );
-      tableLayout.addRule(RelativeLayout.ALIGN_PARENT_BOTTOM);
-
-      container.addView(table, tableLayout);
-
-      TableRow.LayoutParams buttonParam = new TableRow.LayoutParams(
-          TableRow.LayoutParams.MATCH_PARENT,
-          TableRow.LayoutParams.MATCH_PARENT,
-          1.0f
-      );
+      layout.addRule(RelativeLayout.ALIGN_PARENT_BOTTOM);
+      container.addView(keypad, layout);
 
-      List<Button> buttons = new ArrayList<>();
-
-      int buttonMarginPx = dp(this, 2);
-      int buttonPaddingPx = dp(this, 18);
-
-      buttonParam.setMargins(buttonMarginPx, buttonMarginPx, buttonMarginPx, buttonMarginPx);
-
-      for (int r = 0; r < intervalButtonLayout.length; r++) {
-        TableRow row = new TableRow(this);
-        table.addView(row);
-
-        for (int c = 0; c < intervalButtonLayout[r].length; c++) {
-          final int interval = intervalButtonLayout[r][c];
-          if (interval == -1) {
-            TextView emptyField = new TextView(this);
-            emptyField.setPadding(buttonPaddingPx, buttonPaddingPx, buttonPaddingPx, buttonPaddingPx);
-            row.addView(emptyField, buttonParam);
-          } else {
-            Button2 button = new Button2(this);
-            button.setCornerRadius(8f);
-            button.setBackgroundColor(getIntervalBottomColor(states[interval], theme));
-            button.setPadding(buttonPaddingPx, buttonPaddingPx, buttonPaddingPx, buttonPaddingPx);
-            button.setOnTouchListener(new SimpleTouchListener() {
-
-              @Override
-              public void onDownTouchAction() {
-                if (states[interval] != IntervalButtonState.notGuessed) return;
-                button.setBackgroundColor(theme.intervalButton.hoverColor);
-              }
-
-              @Override
-              public void onUpTouchAction() {
-                buttonOnClickListener.onClick(button, interval);
-
-                int color = getIntervalBottomColor(states[interval], theme);
-                button.setBackgroundColor(color);
-              }
-
-              @Override
-              public void onCancelTouchAction() {
-                int color = getIntervalBottomColor(states[interval], theme);
-                button.setBackgroundColor(color);
-              }
-            });
-
-            String text = String.format("%s", intervalNames[interval]);
-            button.setText(text);
-
-            buttons.add(button);
-            row.addView(button, buttonParam);
-          }
-        }
-      }
-
-      result.intervalButtons = buttons;
+      result.intervalKeypad = keypad;
     }
     return result;
   }
 
-  static private int getIntervalBottomColor(IntervalButtonState state, UITheme theme) {
-    switch (state) {
-      case notGuessed:
-        return theme.intervalButton.notGuessedColor;
-      case guessed:
-        return theme.intervalButton.guessedColor;
-      case locked:
-        return theme.intervalButton.lockedColor;
-      default:
-        String error = String.format("unexpected interval button state: %s.", state);
-        throw new IllegalStateException(error);
-    }
-  }
-
   static private IntervalButtonState resetIntervalButtonState(IntervalButtonState state) {
     switch (state) {
       case notGuessed:
@@ -431,16 +536,7 @@ public class MainActivity extends AppCompatActivity {
   }
 
   static private void updateIntervalButtonsBeingClickable(UIState uiState) {
-    List<Button> buttons = uiState.intervalButtons;
-    IntervalButtonState[] states = uiState.intervalButtonStates;
-
-    for (int i = 0; i < states.length; i++) {
-      IntervalButtonState state = states[i];
-      Button button = buttons.get(i);
-
-      int color = getIntervalBottomColor(state, uiState.theme);
-      button.setBackgroundColor(color);
-    }
+    uiState.intervalKeypad.updateStates();
   }
 
   static private boolean isIntervalButtonClickable(IntervalButtonState state) {
@@ -461,6 +557,8 @@ public class MainActivity extends AppCompatActivity {
   protected void onDestroy() {
     super.onDestroy();
 
-    FluidSynth.deinit();
+    state.statsStore.close();
+    SessionExporter.clearListener();
+    AudioEngine.release();
   }
 }
\ No newline at end of file
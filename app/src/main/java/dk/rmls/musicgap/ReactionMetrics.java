@@ -0,0 +1,67 @@
+package dk.rmls.musicgap;
+
+// Timing of a question from the player's side: how long the tap takes to reach the synth, how long
+// until the sound is actually heard, and how long the player then takes to answer. Everything is
+// measured with System.nanoTime(), which is the same CLOCK_MONOTONIC the native onset marker uses.
+//
+// Only touched on the main thread. Recording never allocates.
+public class ReactionMetrics {
+
+  static public final LatencyHistogram tapToSynthCall = new LatencyHistogram("tap to synth call return");
+  // split by path, so cached clips can be compared with the live synth.
+  static public final LatencyHistogram tapToLiveOnset = new LatencyHistogram("tap to audio onset, live");
+  static public final LatencyHistogram tapToClipOnset = new LatencyHistogram("tap to audio onset, cached clip");
+  static public final LatencyHistogram onsetToAnswer = new LatencyHistogram("audio onset to answer");
+
+  static private long requestedNanos;
+  static private boolean clipPlayback;
+  static private boolean onsetPending;
+  static private long onsetNanos;
+
+  static public void onPlaybackRequested() {
+    resolveOnset();
+    onsetPending = false;
+    onsetNanos = 0;
+
+    requestedNanos = System.nanoTime();
+  }
+
+  static public void onPlaybackStarted(boolean clip) {
+    tapToSynthCall.recordNanos(System.nanoTime() - requestedNanos);
+
+    clipPlayback = clip;
+    onsetPending = true;
+  }
+
+  static public void onAnswered() {
+    resolveOnset();
+
+    if (onsetNanos != 0) {
+      onsetToAnswer.recordNanos(System.nanoTime() - onsetNanos);
+    }
+  }
+
+  static public String getTextDump() {
+    StringBuilder out = new StringBuilder();
+    tapToSynthCall.appendTo(out);
+    tapToLiveOnset.appendTo(out);
+    tapToClipOnset.appendTo(out);
+    onsetToAnswer.appendTo(out);
+    return out.toString();
+  }
+
+  // the onset is reported asynchronously by the audio side, so it is picked up on the next tap.
+  static private void resolveOnset() {
+    if (!onsetPending) return;
+
+    long onset = clipPlayback ? ClipPlayer.getLastOnsetNanos() : FluidSynth.getLastOnsetNanos(AudioEngine.getSynth());
+
+    // an onset from before the request belongs to an earlier playback.
+    if (onset < requestedNanos) return;
+
+    onsetPending = false;
+    onsetNanos = onset;
+    LatencyHistogram histogram = clipPlayback ? tapToClipOnset : tapToLiveOnset;
+    histogram.recordNanos(onset - requestedNanos);
+  }
+}
@@ -0,0 +1,127 @@
+package dk.rmls.musicgap;
+
+import android.content.res.AssetManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Renders a run of exercises straight into an audio file, as fast as the synth can go. Each exercise
+// is rendered and encoded as one chunk, in fixed blocks, into the same scratch arrays, so the memory
+// used doesn't grow with the length of the session.
+public class SessionExporter {
+
+  static public interface ExerciseSource {
+    // fills out with the next exercise to export.
+    public void next(Exercise out);
+  }
+
+  static public interface ProgressListener {
+    public void onProgress(int exported, int total);
+  }
+
+  static public interface Listener extends ProgressListener {
+    public void onFinished(File file, boolean success);
+  }
+
+  static public final int SAMPLE_RATE = 44100;
+
+  static private final String TAG = "musicgap";
+
+  // exports run one at a time, away from the AudioEngine executor, so they never hold up prerendering.
+  static private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  // only touched on the main thread. The export itself never holds the listener, so a listener that is
+  // cleared, as by a destroyed Activity, is let go while the export keeps running.
+  static private Listener activeListener;
+
+  // exports on a renderer of its own, and reports back to listener on the main thread until clearListener.
+  static public void exportInBackground(AssetManager assetManager, String soundFontName, ExerciseSource source,
+                                        int count, int gapMs, File file, int fileType, Listener listener) {
+    Handler mainHandler = new Handler(Looper.getMainLooper());
+    activeListener = listener;
+
+    executor.execute(() -> {
+      long start = System.nanoTime();
+
+      long frames = FluidSynth.FLUID_FAILED;
+      long renderer = FluidSynth.createRenderer(SAMPLE_RATE, true);
+      if (renderer != 0
+          && FluidSynth.loadSoundFontFromAssets(renderer, assetManager, soundFontName) != FluidSynth.FLUID_FAILED) {
+        frames = export(renderer, SAMPLE_RATE, source, count, gapMs, file, fileType,
+            (exported, total) -> mainHandler.post(() -> {
+              if (activeListener != null) activeListener.onProgress(exported, total);
+            }));
+      }
+      FluidSynth.close(renderer);
+
+      if (frames == FluidSynth.FLUID_FAILED) {
+        Log.e(TAG, String.format("failed to export %s", file));
+      } else {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double audioSeconds = frames / (double) SAMPLE_RATE;
+        Log.i(TAG, String.format("exported %.1f s of audio to %s in %.1f s (%.0fx realtime)",
+            audioSeconds, file, seconds, audioSeconds / seconds));
+      }
+
+      boolean success = frames != FluidSynth.FLUID_FAILED;
+      mainHandler.post(() -> {
+        if (activeListener != null) activeListener.onFinished(file, success);
+      });
+    });
+  }
+
+  static public void clearListener() {
+    activeListener = null;
+  }
+
+  // renders count exercises from source, each followed by gapMs of silence, into file. Runs on the
+  // calling thread, and calls progress there after every exercise. Returns the number of frames
+  // written, or FLUID_FAILED.
+  static public long export(long renderer, int sampleRate, ExerciseSource source, int count, int gapMs,
+                            File file, int fileType, ProgressListener progress) {
+    if (FluidSynth.openExport(renderer, file.getPath(), fileType) != FluidSynth.FLUID_OK) {
+      return FluidSynth.FLUID_FAILED;
+    }
+
+    Exercise exercise = new Exercise();
+    int[] events = new int[2 * Exercise.MAX_NOTES * FluidSynth.EVENT_SIZE];
+    int[] frameOffsets = new int[2 * Exercise.MAX_NOTES];
+
+    long result = 0;
+    for (int i = 0; i < count; i++) {
+      source.next(exercise);
+
+      int eventCount = exercise.getEvents(events, frameOffsets, MainActivity.NOTE_VELOCITY);
+      for (int e = 0; e < eventCount; e++) {
+        frameOffsets[e] = ClipRenderer.msToFrames(frameOffsets[e], sampleRate);
+      }
+
+      int frames = ClipRenderer.msToFrames(exercise.getLengthMs() + gapMs, sampleRate);
+      int written = FluidSynth.renderEventsToExport(renderer, events, frameOffsets, eventCount, frames);
+      if (written == FluidSynth.FLUID_FAILED) {
+        result = FluidSynth.FLUID_FAILED;
+        break;
+      }
+
+      result += written;
+      progress.onProgress(i + 1, count);
+    }
+
+    // the last notes are released during the gap, let them die out before the file ends.
+    if (result != FluidSynth.FLUID_FAILED) {
+      int tailFrames = ClipRenderer.msToFrames(ClipRenderer.RELEASE_TAIL_MS, sampleRate);
+      int written = FluidSynth.renderEventsToExport(renderer, events, frameOffsets, 0, tailFrames);
+      result = written != FluidSynth.FLUID_FAILED ? result + written : FluidSynth.FLUID_FAILED;
+    }
+
+    // the file is only complete once the encoder is flushed.
+    if (FluidSynth.closeExport(renderer) != FluidSynth.FLUID_OK) {
+      result = FluidSynth.FLUID_FAILED;
+    }
+    return result;
+  }
+}
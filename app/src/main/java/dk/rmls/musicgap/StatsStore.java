@@ -0,0 +1,305 @@
+package dk.rmls.musicgap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Persistent answer statistics. Every guess is appended to a binary event log, in small batches, and
+// per-interval and per-register aggregates are kept up to date as guesses come in. The aggregates are
+// saved as a small snapshot that remembers how much of the log it covers, so opening the store only
+// replays the log written after the last snapshot.
+//
+// The aggregates live on the main thread. All file IO runs on a single background thread.
+public class StatsStore {
+
+  static public final int INTERVALS = 13;
+
+  // octaves of the lower note.
+  static public final int REGISTERS = 11;
+
+  static public class Aggregates {
+    public int[] intervalCorrect = new int[INTERVALS];
+    public int[] intervalTotal = new int[INTERVALS];
+    public int[] registerCorrect = new int[REGISTERS];
+    public int[] registerTotal = new int[REGISTERS];
+  }
+
+  static public interface LoadListener {
+    // only the history read from disk, without the guesses recorded since open.
+    public void onLoaded(Aggregates history);
+  }
+
+  static private final String TAG = "musicgap";
+
+  // timestamp, noteA, noteB, guessedInterval, latencyMs.
+  static private final int RECORD_BYTES = 8 + 4 * 4;
+
+  static private final int SNAPSHOT_MAGIC = 0x6d676170;
+  static private final int SNAPSHOT_VERSION = 1;
+  static private final int SNAPSHOT_BYTES = 4 + 4 + 8 + 4 * (2 * INTERVALS + 2 * REGISTERS);
+
+  static private final int SNAPSHOT_EVERY = 64;
+
+  // records are written in batches. A batch is also written by every snapshot, flush and close.
+  static private final int PENDING_RECORDS = 16;
+
+  // shared by all stores, so a store opened by a recreated Activity only reads after the old one closed.
+  static private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  // per store, so getRegister also works where there is no main looper, as in host tests.
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final File logFile;
+  private final File snapshotFile;
+
+  // only touched on the main thread.
+  private final Aggregates aggregates = new Aggregates();
+  private boolean historyLoaded;
+  private int recordsSinceSnapshot;
+
+  // only touched on the executor.
+  private FileChannel log;
+  private final ByteBuffer pending = ByteBuffer.allocateDirect(RECORD_BYTES * PENDING_RECORDS).order(ByteOrder.LITTLE_ENDIAN);
+  private final ByteBuffer snapshot = ByteBuffer.allocateDirect(SNAPSHOT_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+  public StatsStore(File directory) {
+    logFile = new File(directory, "stats.log");
+    snapshotFile = new File(directory, "stats.snapshot");
+  }
+
+  // guesses recorded before the load finishes are kept, since the counts just add up.
+  public void open(LoadListener listener) {
+    executor.execute(() -> {
+      long start = System.nanoTime();
+
+      Aggregates loaded = new Aggregates();
+      try {
+        long covered = readSnapshot(loaded);
+        log = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // a log shorter than the snapshot says, or a torn last record, means the files don't belong together.
+        long size = log.size();
+        if (covered > size) {
+          loaded = new Aggregates();
+          covered = 0;
+        }
+        long end = size - (size - covered) % RECORD_BYTES;
+        replayLog(loaded, covered, end);
+        log.truncate(end);
+        log.position(end);
+
+      } catch (IOException e) {
+        Log.e(TAG, "failed to open stats", e);
+        return;
+      }
+
+      Log.i(TAG, String.format("stats loaded in %.1f ms", (System.nanoTime() - start) / 1e6));
+
+      Aggregates result = loaded;
+      mainHandler.post(() -> {
+        add(aggregates, result);
+        historyLoaded = true;
+        listener.onLoaded(result);
+      });
+    });
+  }
+
+  public Aggregates getAggregates() {
+    return aggregates;
+  }
+
+  public void record(int noteA, int noteB, int guessedInterval, int latencyMs) {
+    long timestamp = System.currentTimeMillis();
+    apply(aggregates, noteA, noteB, guessedInterval);
+
+    executor.execute(() -> {
+      if (log == null) return;
+
+      if (pending.remaining() < RECORD_BYTES) {
+        writePending();
+      }
+      pending.putLong(timestamp).putInt(noteA).putInt(noteB).putInt(guessedInterval).putInt(latencyMs);
+    });
+
+    recordsSinceSnapshot += 1;
+    if (recordsSinceSnapshot >= SNAPSHOT_EVERY) {
+      saveSnapshot();
+    }
+  }
+
+  // writes the records that are still batched, as when the app goes to the background.
+  public void flush() {
+    executor.execute(() -> {
+      if (log == null) return;
+
+      writePending();
+    });
+  }
+
+  public void close() {
+    saveSnapshot();
+
+    executor.execute(() -> {
+      if (log == null) return;
+
+      writePending();
+      try {
+        log.close();
+      } catch (IOException e) {
+        Log.e(TAG, "failed to close stats", e);
+      }
+      log = null;
+    });
+  }
+
+  // the copy is taken here, on the main thread, and everything that is queued before it is covered by it.
+  private void saveSnapshot() {
+    // until the history is merged in, the aggregates only hold this session.
+    if (!historyLoaded) return;
+
+    recordsSinceSnapshot = 0;
+
+    Aggregates copy = new Aggregates();
+    add(copy, aggregates);
+
+    executor.execute(() -> {
+      if (log == null) return;
+
+      writePending();
+      try {
+        log.force(false);
+        writeSnapshot(copy, log.size());
+      } catch (IOException e) {
+        Log.e(TAG, "failed to save stats snapshot", e);
+      }
+    });
+  }
+
+  // a record that fails to write is dropped, the aggregates still count it.
+  private void writePending() {
+    pending.flip();
+    try {
+      while (pending.hasRemaining()) log.write(pending);
+    } catch (IOException e) {
+      Log.e(TAG, "failed to write stats", e);
+    }
+    pending.clear();
+  }
+
+  private long readSnapshot(Aggregates out) throws IOException {
+    if (!snapshotFile.exists()) return 0;
+
+    snapshot.clear();
+    try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+      while (snapshot.hasRemaining() && channel.read(snapshot) > 0) ;
+    }
+    snapshot.flip();
+
+    if (snapshot.remaining() != SNAPSHOT_BYTES
+        || snapshot.getInt() != SNAPSHOT_MAGIC
+        || snapshot.getInt() != SNAPSHOT_VERSION) {
+      return 0;
+    }
+
+    long covered = snapshot.getLong();
+    getInts(snapshot, out.intervalCorrect);
+    getInts(snapshot, out.intervalTotal);
+    getInts(snapshot, out.registerCorrect);
+    getInts(snapshot, out.registerTotal);
+    return covered;
+  }
+
+  private void writeSnapshot(Aggregates aggregates, long covered) throws IOException {
+    snapshot.clear();
+    snapshot.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(covered);
+    putInts(snapshot, aggregates.intervalCorrect);
+    putInts(snapshot, aggregates.intervalTotal);
+    putInts(snapshot, aggregates.registerCorrect);
+    putInts(snapshot, aggregates.registerTotal);
+    snapshot.flip();
+
+    File temp = new File(snapshotFile.getPath() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      while (snapshot.hasRemaining()) channel.write(snapshot);
+      channel.force(false);
+    }
+
+    Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private void replayLog(Aggregates out, long from, long to) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_BYTES * 256).order(ByteOrder.LITTLE_ENDIAN);
+
+    long position = from;
+    while (position < to) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), to - position));
+      while (buffer.hasRemaining() && log.read(buffer, position + buffer.position()) > 0) ;
+      buffer.flip();
+
+      while (buffer.remaining() >= RECORD_BYTES) {
+        buffer.getLong();
+        int noteA = buffer.getInt();
+        int noteB = buffer.getInt();
+        int guessedInterval = buffer.getInt();
+        buffer.getInt();
+
+        apply(out, noteA, noteB, guessedInterval);
+      }
+
+      position += buffer.position();
+      if (buffer.position() == 0) break;
+    }
+  }
+
+  static public int getRegister(int noteA, int noteB) {
+    return Math.max(0, Math.min(REGISTERS - 1, Math.min(noteA, noteB) / 12));
+  }
+
+  static private void apply(Aggregates aggregates, int noteA, int noteB, int guessedInterval) {
+    int interval = Math.abs(noteB - noteA);
+    if (interval >= INTERVALS) return;
+
+    int register = getRegister(noteA, noteB);
+    int correct = guessedInterval == interval ? 1 : 0;
+
+    aggregates.intervalCorrect[interval] += correct;
+    aggregates.intervalTotal[interval] += 1;
+    aggregates.registerCorrect[register] += correct;
+    aggregates.registerTotal[register] += 1;
+  }
+
+  static private void add(Aggregates to, Aggregates from) {
+    for (int i = 0; i < INTERVALS; i++) {
+      to.intervalCorrect[i] += from.intervalCorrect[i];
+      to.intervalTotal[i] += from.intervalTotal[i];
+    }
+    for (int i = 0; i < REGISTERS; i++) {
+      to.registerCorrect[i] += from.registerCorrect[i];
+      to.registerTotal[i] += from.registerTotal[i];
+    }
+  }
+
+  static private void getInts(ByteBuffer buffer, int[] out) {
+    for (int i = 0; i < out.length; i++) {
+      out[i] = buffer.getInt();
+    }
+  }
+
+  static private void putInts(ByteBuffer buffer, int[] values) {
+    for (int value : values) {
+      buffer.putInt(value);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package dk.rmls.musicgap;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Reads FluidSynth.getStats of the live synth every SAMPLE_PERIOD_MS into a fixed ring holding the last
+// SAMPLES readings, so what the synth was doing shortly before a glitch can be dumped afterwards.
+// Sampling runs on its own thread and never allocates.
+public class SynthStatsSampler {
+
+  static public final int SAMPLES = 120;
+  static public final long SAMPLE_PERIOD_MS = 1000;
+
+  static private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  // guarded by samples.
+  static private final long[] samples = new long[SAMPLES * FluidSynth.STATS_SIZE];
+  static private final long[] sampledAtMs = new long[SAMPLES];
+  static private int sampleCount;
+  static private int nextSample;
+
+  // only touched on the executor.
+  static private final long[] reading = new long[FluidSynth.STATS_SIZE];
+
+  // only touched on the main thread.
+  static private ScheduledFuture<?> task;
+
+  static public void start() {
+    if (task != null) return;
+    task = executor.scheduleAtFixedRate(SynthStatsSampler::sample, 0, SAMPLE_PERIOD_MS, TimeUnit.MILLISECONDS);
+  }
+
+  static public void stop() {
+    if (task == null) return;
+    task.cancel(false);
+    task = null;
+  }
+
+  // copies the latest reading into out, returns false if there is none yet.
+  static public boolean getLatest(long[] out) {
+    synchronized (samples) {
+      if (sampleCount == 0) return false;
+
+      int latest = (nextSample + SAMPLES - 1) % SAMPLES;
+      System.arraycopy(samples, latest * FluidSynth.STATS_SIZE, out, 0, FluidSynth.STATS_SIZE);
+      return true;
+    }
+  }
+
+  // oldest reading first.
+  static public String getTextDump() {
+    StringBuilder out = new StringBuilder();
+    synchronized (samples) {
+      long now = SystemClock.uptimeMillis();
+      for (int i = 0; i < sampleCount; i++) {
+        int sample = (nextSample + SAMPLES - sampleCount + i) % SAMPLES;
+        int offset = sample * FluidSynth.STATS_SIZE;
+
+        out.append(String.format("%6.1f s ago: cpu %.1f%%, voices %d/%d, underruns %d, soundfont read in total %d KB, native heap %d KB\n",
+            (now - sampledAtMs[sample]) / 1e3, samples[offset + FluidSynth.STATS_CPU_LOAD_PERMILLE] / 10.0,
+            samples[offset + FluidSynth.STATS_ACTIVE_VOICES], samples[offset + FluidSynth.STATS_POLYPHONY],
+            samples[offset + FluidSynth.STATS_UNDERRUNS], samples[offset + FluidSynth.STATS_SOUND_FONT_BYTES_READ_TOTAL] / 1024,
+            samples[offset + FluidSynth.STATS_NATIVE_HEAP_BYTES] / 1024));
+      }
+    }
+    return out.toString();
+  }
+
+  static private void sample() {
+    long synth = AudioEngine.getSynth();
+    if (synth == 0 || FluidSynth.getStats(synth, reading) != FluidSynth.FLUID_OK) return;
+
+    long now = SystemClock.uptimeMillis();
+    synchronized (samples) {
+      System.arraycopy(reading, 0, samples, nextSample * FluidSynth.STATS_SIZE, FluidSynth.STATS_SIZE);
+      sampledAtMs[nextSample] = now;
+
+      nextSample = (nextSample + 1) % SAMPLES;
+      sampleCount = Math.min(sampleCount + 1, SAMPLES);
+    }
+  }
+}
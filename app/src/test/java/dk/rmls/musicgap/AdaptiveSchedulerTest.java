@@ -0,0 +1,89 @@
+package dk.rmls.musicgap;
+
+import static dk.rmls.musicgap.MainActivity.Dyad;
+import static dk.rmls.musicgap.MainActivity.IntervalSettings;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+public class AdaptiveSchedulerTest {
+
+  static private DyadGenerator createGenerator() {
+    IntervalSettings settings = new IntervalSettings();
+    settings.lowestNote = 21;
+    settings.highestNote = 108;
+    settings.intervals = IntStream.rangeClosed(-12, 12).toArray();
+    return new DyadGenerator(settings, 7);
+  }
+
+  @Test
+  public void everyDrawnDyad_mapsBackToItsStratum() {
+    DyadGenerator generator = createGenerator();
+
+    Dyad dyad = new Dyad();
+    for (int stratum = 0; stratum < generator.getDeckSize(); stratum++) {
+      for (int i = 0; i < 100; i++) {
+        generator.next(stratum, dyad);
+        assertEquals(stratum, generator.getStratum(dyad.noteA, dyad.noteB));
+      }
+    }
+  }
+
+  @Test
+  public void missedStratum_isDrawnMoreOften() {
+    DyadGenerator generator = createGenerator();
+    AdaptiveScheduler scheduler = new AdaptiveScheduler(generator, 7);
+
+    Dyad missed = new Dyad();
+    generator.next(0, missed);
+
+    Dyad dyad = new Dyad();
+    for (int i = 0; i < generator.getDeckSize() * 20; i++) {
+      scheduler.next(dyad);
+      scheduler.record(dyad.noteA, dyad.noteB, true);
+    }
+    for (int i = 0; i < 20; i++) {
+      scheduler.record(missed.noteA, missed.noteB, false);
+    }
+
+    int draws = 100_000;
+    int missedDraws = 0;
+    for (int i = 0; i < draws; i++) {
+      scheduler.next(dyad);
+      if (generator.getStratum(dyad.noteA, dyad.noteB) == 0) missedDraws += 1;
+    }
+
+    // uniform drawing would give draws / getDeckSize().
+    assertTrue(missedDraws > 3 * draws / generator.getDeckSize());
+  }
+
+  @Test
+  public void seededHistory_keepsWeakRegistersHeavier() {
+    DyadGenerator generator = createGenerator();
+    AdaptiveScheduler scheduler = new AdaptiveScheduler(generator, 7);
+
+    int weakRegister = generator.getStratumRegister(generator.getStratum(21, 28));
+
+    StatsStore.Aggregates history = new StatsStore.Aggregates();
+    history.intervalCorrect[7] = 200;
+    history.intervalTotal[7] = 300;
+    for (int register = 0; register < StatsStore.REGISTERS; register++) {
+      history.registerCorrect[register] = register == weakRegister ? 0 : 100;
+      history.registerTotal[register] = 100;
+    }
+    scheduler.seed(history);
+
+    int strongStrata = 0;
+    double weakWeight = scheduler.getWeight(generator.getStratum(21, 28));
+    for (int stratum = 0; stratum < generator.getDeckSize(); stratum++) {
+      if (generator.getStratumInterval(stratum) != 7 || generator.getStratumRegister(stratum) == weakRegister) continue;
+
+      assertTrue(weakWeight > 2 * scheduler.getWeight(stratum));
+      strongStrata += 1;
+    }
+    assertTrue(strongStrata > 0);
+  }
+}
@@ -0,0 +1,56 @@
+package dk.rmls.musicgap;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the JMH benchmarks from the unit test task, skipped unless asked for:
+ *
+ *   ./gradlew testDebugUnitTest --tests '*Benchmarks' -Pbenchmark [-PnativeLibDir=...]
+ *
+ * The JNI benchmarks only run when nativeLibDir points at a host build of libmusicgap, and the
+ * soundfont is in the assets.
+ */
+public class Benchmarks {
+
+  @Test
+  public void run() throws RunnerException {
+    assumeTrue(Boolean.getBoolean("musicgap.benchmark"));
+
+    File results = new File("build/reports/jmh/results.txt");
+    results.getParentFile().mkdirs();
+
+    // the Gradle test worker loads test classes from its own classpath, which a forked JVM wouldn't see.
+    ChainedOptionsBuilder options = new OptionsBuilder()
+        .include(GameCoreBenchmark.class.getSimpleName())
+        .include(DyadBatchBenchmark.class.getSimpleName())
+        .include(IOUtilBenchmark.class.getSimpleName())
+        .forks(0)
+        .warmupIterations(3)
+        .measurementIterations(5)
+        .resultFormat(ResultFormatType.TEXT)
+        .result(results.getPath());
+
+    if (hasNativeLibrary() && FluidSynthBenchmark.SOUND_FONT.exists()) {
+      options.include(FluidSynthBenchmark.class.getSimpleName());
+    }
+
+    new Runner(options.build()).run();
+  }
+
+  static boolean hasNativeLibrary() {
+    String libraryName = System.mapLibraryName("musicgap");
+    for (String directory : System.getProperty("java.library.path", "").split(File.pathSeparator)) {
+      if (new File(directory, libraryName).exists()) return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,65 @@
+package dk.rmls.musicgap;
+
+import static dk.rmls.musicgap.MainActivity.Dyad;
+import static dk.rmls.musicgap.MainActivity.IntervalSettings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DyadBatchBenchmark {
+
+  @Param({"1000", "1000000"})
+  public int count;
+
+  private int[] intervals;
+  private DyadGenerator generator;
+  private int[] noteA, noteB;
+
+  @Setup
+  public void setup() {
+    intervals = IntStream.rangeClosed(-12, 12).toArray();
+
+    IntervalSettings settings = new IntervalSettings();
+    settings.lowestNote = 21;
+    settings.highestNote = 108;
+    settings.intervals = intervals;
+
+    generator = new DyadGenerator(settings, 1);
+    noteA = new int[count];
+    noteB = new int[count];
+  }
+
+  @Benchmark
+  public int[] perCall() {
+    for (int i = 0; i < count; i++) {
+      Dyad dyad = MainActivity.generateRandomDyad(21, 108, intervals);
+      noteA[i] = dyad.noteA;
+      noteB[i] = dyad.noteB;
+    }
+    return noteA;
+  }
+
+  @Benchmark
+  public int[] generate() {
+    generator.generate(noteA, noteB, 0, count);
+    return noteA;
+  }
+
+  @Benchmark
+  public int[] generateParallel() {
+    generator.generateParallel(noteA, noteB, 1);
+    return noteA;
+  }
+}
@@ -0,0 +1,100 @@
+package dk.rmls.musicgap;
+
+import static dk.rmls.musicgap.MainActivity.Dyad;
+import static dk.rmls.musicgap.MainActivity.IntervalSettings;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+public class DyadGeneratorTest {
+
+  static private IntervalSettings createSettings(int lowestNote, int highestNote) {
+    IntervalSettings settings = new IntervalSettings();
+    settings.lowestNote = lowestNote;
+    settings.highestNote = highestNote;
+    settings.intervals = IntStream.rangeClosed(-12, 12).toArray();
+    return settings;
+  }
+
+  @Test
+  public void sameSeed_generatesSameDyads() {
+    IntervalSettings settings = createSettings(21, 108);
+    DyadGenerator a = new DyadGenerator(settings, 42);
+    DyadGenerator b = new DyadGenerator(settings, 42);
+
+    Dyad dyadA = new Dyad();
+    Dyad dyadB = new Dyad();
+    for (int i = 0; i < 1000; i++) {
+      a.next(dyadA);
+      b.next(dyadB);
+
+      assertEquals(dyadA.noteA, dyadB.noteA);
+      assertEquals(dyadA.noteB, dyadB.noteB);
+    }
+  }
+
+  @Test
+  public void dyads_stayWithinSettings() {
+    IntervalSettings settings = createSettings(60, 67);
+    DyadGenerator generator = new DyadGenerator(settings, 7);
+
+    Dyad dyad = new Dyad();
+    for (int i = 0; i < 10000; i++) {
+      generator.next(dyad);
+
+      assertTrue(dyad.noteA >= 60 && dyad.noteA <= 67);
+      assertTrue(dyad.noteB >= 60 && dyad.noteB <= 67);
+      assertTrue(Math.abs(dyad.noteB - dyad.noteA) <= 7);
+    }
+  }
+
+  @Test
+  public void everyDeck_coversEachIntervalAndRegisterOnce() {
+    IntervalSettings settings = createSettings(21, 108);
+    DyadGenerator generator = new DyadGenerator(settings, 3);
+
+    int deckSize = generator.getDeckSize();
+    assertEquals(25 * DyadGenerator.REGISTERS, deckSize);
+
+    int[] noteA = new int[deckSize * 4];
+    int[] noteB = new int[deckSize * 4];
+    generator.generate(noteA, noteB, 0, noteA.length);
+
+    for (int deck = 0; deck < 4; deck++) {
+      int[] perInterval = new int[25];
+      for (int i = deck * deckSize; i < (deck + 1) * deckSize; i++) {
+        perInterval[noteB[i] - noteA[i] + 12] += 1;
+      }
+      for (int count : perInterval) {
+        assertEquals(DyadGenerator.REGISTERS, count);
+      }
+    }
+  }
+
+  @Test
+  public void generateParallel_dependsOnlyOnSeed() {
+    IntervalSettings settings = createSettings(21, 108);
+    DyadGenerator generator = new DyadGenerator(settings, 5);
+
+    int count = 200_000;
+    int[] noteA1 = new int[count], noteB1 = new int[count];
+    int[] noteA2 = new int[count], noteB2 = new int[count];
+    generator.generateParallel(noteA1, noteB1, 11);
+    generator.generateParallel(noteA2, noteB2, 11);
+
+    assertArrayEquals(noteA1, noteA2);
+    assertArrayEquals(noteB1, noteB2);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void noValidIntervals_throws() {
+    IntervalSettings settings = createSettings(60, 60);
+    settings.intervals = new int[]{3, -5};
+
+    new DyadGenerator(settings);
+  }
+}
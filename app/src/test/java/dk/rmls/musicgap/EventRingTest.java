@@ -0,0 +1,68 @@
+package dk.rmls.musicgap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class EventRingTest {
+
+  @Test
+  public void offer_writesSlotsAndPublishesThemTogether() {
+    EventRing ring = new EventRing(4);
+    // FluidSynth.putEvent would load the native library.
+    int[] events = {
+        FluidSynth.EVENT_NOTE_ON, 0, 60, 127,
+        FluidSynth.EVENT_NOTE_OFF, 0, 60, 0,
+    };
+    int[] offsetsMs = {0, 400};
+
+    assertTrue(ring.offer(events, offsetsMs, 2));
+
+    ByteBuffer buffer = ring.getBuffer();
+    assertEquals(2, buffer.getInt(EventRing.WRITE_INDEX_OFFSET));
+
+    int second = EventRing.SLOTS_OFFSET + EventRing.SLOT_BYTES;
+    assertEquals(0, buffer.getInt(EventRing.SLOTS_OFFSET + EventRing.SLOT_OFFSET_MS_OFFSET));
+    assertEquals(EventRing.FLAG_BATCH_START | EventRing.FLAG_ONSET,
+        buffer.getInt(EventRing.SLOTS_OFFSET + EventRing.SLOT_FLAGS_OFFSET));
+    assertEquals(400, buffer.getInt(second + EventRing.SLOT_OFFSET_MS_OFFSET));
+    assertEquals(FluidSynth.EVENT_NOTE_OFF, buffer.getInt(second + EventRing.SLOT_EVENT_OFFSET));
+    assertEquals(60, buffer.getInt(second + EventRing.SLOT_EVENT_OFFSET + 8));
+    assertEquals(0, buffer.getInt(second + EventRing.SLOT_FLAGS_OFFSET));
+  }
+
+  @Test
+  public void offer_refusesWhatDoesntFitUntilTheConsumerCatchesUp() {
+    EventRing ring = new EventRing(4);
+    int[] events = new int[3 * FluidSynth.EVENT_SIZE];
+    int[] offsetsMs = new int[3];
+
+    assertTrue(ring.offer(events, offsetsMs, 3));
+    assertFalse(ring.offer(events, offsetsMs, 2));
+    assertEquals(3, ring.getPending());
+
+    // the audio thread freed two slots, the ring wraps around.
+    ring.getBuffer().putInt(EventRing.READ_INDEX_OFFSET, 2);
+    assertTrue(ring.offer(events, offsetsMs, 3));
+    assertEquals(6, ring.getBuffer().getInt(EventRing.WRITE_INDEX_OFFSET));
+  }
+
+  @Test
+  public void cancel_dropsEverythingOfferedBeforeIt() {
+    EventRing ring = new EventRing(8);
+    int[] events = new int[2 * FluidSynth.EVENT_SIZE];
+    int[] offsetsMs = new int[2];
+
+    ring.offer(events, offsetsMs, 2);
+    ring.cancel(true);
+
+    ByteBuffer buffer = ring.getBuffer();
+    assertEquals(2, buffer.getInt(EventRing.CANCEL_INDEX_OFFSET));
+    assertEquals(1, buffer.getInt(EventRing.CANCEL_CUT_SOUND_OFFSET));
+    assertEquals(1, buffer.getInt(EventRing.CANCEL_SEQUENCE_OFFSET));
+  }
+}
@@ -0,0 +1,49 @@
+package dk.rmls.musicgap;
+
+import static dk.rmls.musicgap.MainActivity.Dyad;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class ExerciseTest {
+
+  @Test
+  public void events_areSortedWithNoteOffsFirst() {
+    Exercise exercise = new Exercise();
+    Exercise.setMelody(exercise, new int[]{60, 60, 64}, 400);
+
+    int[] events = new int[2 * Exercise.MAX_NOTES * FluidSynth.EVENT_SIZE];
+    int[] offsetsMs = new int[2 * Exercise.MAX_NOTES];
+    int count = exercise.getEvents(events, offsetsMs, 100);
+
+    assertEquals(6, count);
+    int[] expectedOffsetsMs = {0, 400, 400, 800, 800, 1200};
+    int[] expectedTypes = {
+        FluidSynth.EVENT_NOTE_ON, FluidSynth.EVENT_NOTE_OFF, FluidSynth.EVENT_NOTE_ON,
+        FluidSynth.EVENT_NOTE_OFF, FluidSynth.EVENT_NOTE_ON, FluidSynth.EVENT_NOTE_OFF,
+    };
+    for (int i = 0; i < count; i++) {
+      assertEquals(expectedOffsetsMs[i], offsetsMs[i]);
+      assertEquals(expectedTypes[i], events[i * FluidSynth.EVENT_SIZE]);
+    }
+  }
+
+  @Test
+  public void harmonicAndMelodicIntervals_areDifferentClips() {
+    Dyad dyad = new Dyad();
+    dyad.noteA = 60;
+    dyad.noteB = 67;
+
+    Exercise melodic = new Exercise();
+    Exercise.setMelodicInterval(melodic, dyad, 400);
+    Exercise harmonic = new Exercise();
+    Exercise.setHarmonicInterval(harmonic, dyad, 800);
+    Exercise copy = new Exercise();
+    copy.copyFrom(melodic);
+
+    assertNotEquals(melodic, harmonic);
+    assertEquals(melodic, copy);
+    assertEquals(melodic.hashCode(), copy.hashCode());
+  }
+}
@@ -0,0 +1,83 @@
+package dk.rmls.musicgap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assume.assumeTrue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+// needs a host build of libmusicgap on java.library.path and the soundfont, see Benchmarks.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FluidSynthBenchmark {
+
+  static final File SOUND_FONT = new File("src/main/assets/Yamaha-Grand-Lite-v2.0.sf2");
+
+  // released voices pile up until the synth steals them, which would be timed as well. Rendering
+  // resets the synth, so they are cleared well before the 256 voices run out.
+  static private final int CALLS_PER_RENDER = 32;
+
+  private long synth;
+  private int[] events;
+  private int calls;
+
+  private final int[] noFrameOffsets = new int[0];
+  private final short[] block = new short[64 * 2];
+
+  @Setup
+  public void setup() {
+    assumeTrue(SOUND_FONT.exists());
+
+    // a renderer needs no audio device, and takes note events the same way a live synth does.
+    synth = FluidSynth.createRenderer(44100, false);
+    assertNotEquals(FluidSynth.FLUID_FAILED, FluidSynth.loadSoundFont(synth, SOUND_FONT.getPath()));
+
+    events = new int[2 * FluidSynth.EVENT_SIZE];
+    FluidSynth.putEvent(events, 0, FluidSynth.EVENT_NOTE_ON, 0, 60, 127);
+    FluidSynth.putEvent(events, 1, FluidSynth.EVENT_NOTE_OFF, 0, 60, 0);
+
+    // without a preset every note on fails early, and the benchmark would time that instead.
+    assertEquals(FluidSynth.FLUID_OK, FluidSynth.sendEvents(synth, events, 2));
+    renderBlock();
+  }
+
+  @TearDown
+  public void tearDown() {
+    FluidSynth.close(synth);
+  }
+
+  @Benchmark
+  public int noteOnNoteOff() {
+    clearVoicesPeriodically();
+    FluidSynth.noteOn(synth, 0, 60, 127);
+    return FluidSynth.noteOff(synth, 0, 60);
+  }
+
+  @Benchmark
+  public int sendEvents() {
+    clearVoicesPeriodically();
+    return FluidSynth.sendEvents(synth, events, 2);
+  }
+
+  private void clearVoicesPeriodically() {
+    calls += 1;
+    if (calls % CALLS_PER_RENDER == 0) {
+      renderBlock();
+    }
+  }
+
+  private void renderBlock() {
+    FluidSynth.renderEvents(synth, events, noFrameOffsets, 0, block);
+  }
+}
@@ -0,0 +1,304 @@
+package dk.rmls.musicgap;
+
+import static dk.rmls.musicgap.MainActivity.Dyad;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Drives the JNI bridge against a desktop build of libmusicgap, see CMakeLists.txt. Skipped unless
+ * nativeLibDir points at one:
+ *
+ *   ./gradlew testDebugUnitTest --tests '*FluidSynthHostTest' -PnativeLibDir=...
+ */
+public class FluidSynthHostTest {
+
+  static private final File SOUND_FONT = new File("src/main/assets/Yamaha-Grand-Lite-v2.0.sf2");
+  static private final int SAMPLE_RATE = 44100;
+
+  // format 0, one track, 96 ticks per quarter: middle C for a quarter note.
+  static private final byte[] MIDDLE_C_MIDI = {
+      'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 0, 0, 1, 0, 96,
+      'M', 'T', 'r', 'k', 0, 0, 0, 12,
+      0, (byte) 0x90, 60, 100,
+      96, (byte) 0x80, 60, 0,
+      0, (byte) 0xff, 0x2f, 0,
+  };
+
+  private long renderer;
+
+  @Before
+  public void setUp() {
+    assumeTrue(Benchmarks.hasNativeLibrary());
+    assumeTrue(SOUND_FONT.exists());
+
+    renderer = FluidSynth.createRenderer(SAMPLE_RATE, false);
+    assertNotEquals(0, renderer);
+    assertNotEquals(FluidSynth.FLUID_FAILED, FluidSynth.loadSoundFont(renderer, SOUND_FONT.getPath()));
+  }
+
+  @After
+  public void tearDown() {
+    if (renderer != 0) FluidSynth.close(renderer);
+  }
+
+  @Test
+  public void renderedExercise_isAudibleAndRepeatable() {
+    Dyad dyad = new Dyad();
+    dyad.noteA = 60;
+    dyad.noteB = 67;
+
+    Exercise exercise = new Exercise();
+    Exercise.setMelodicInterval(exercise, dyad, MainActivity.NOTE_SPACING_MS);
+
+    short[] first = ClipRenderer.renderExercise(renderer, exercise, SAMPLE_RATE);
+    short[] second = ClipRenderer.renderExercise(renderer, exercise, SAMPLE_RATE);
+
+    int peak = 0;
+    for (short sample : first) {
+      peak = Math.max(peak, Math.abs(sample));
+    }
+    assertTrue(peak > 1000);
+    assertArrayEquals(first, second);
+  }
+
+  @Test
+  public void dynamicSampleLoading_readsNoMoreThanAFullLoad() {
+    long[] full = new long[FluidSynth.MEMORY_INFO_SIZE];
+    assertEquals(FluidSynth.FLUID_OK, FluidSynth.getMemoryInfo(renderer, full));
+    assertTrue(full[FluidSynth.MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL] > 0);
+
+    long dynamic = FluidSynth.createRenderer(SAMPLE_RATE, true);
+    assertNotEquals(0, dynamic);
+
+    try {
+      long[] before = new long[FluidSynth.MEMORY_INFO_SIZE];
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.getMemoryInfo(dynamic, before));
+      assertEquals(0, before[FluidSynth.MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL]);
+
+      assertNotEquals(FluidSynth.FLUID_FAILED, FluidSynth.loadSoundFont(dynamic, SOUND_FONT.getPath()));
+
+      // only the presets sfload selects are loaded, so a soundfont with more than one reads less.
+      long[] after = new long[FluidSynth.MEMORY_INFO_SIZE];
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.getMemoryInfo(dynamic, after));
+      assertTrue(after[FluidSynth.MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL] > 0);
+      assertTrue(after[FluidSynth.MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL]
+          <= full[FluidSynth.MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL]);
+
+      // the counters are per synth.
+      long[] fullAgain = new long[FluidSynth.MEMORY_INFO_SIZE];
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.getMemoryInfo(renderer, fullAgain));
+      assertEquals(full[FluidSynth.MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL],
+          fullAgain[FluidSynth.MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL]);
+    } finally {
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.close(dynamic));
+    }
+  }
+
+  @Test
+  public void liveSynth_playsThroughTheFileDriver() {
+    long synth = FluidSynth.create(FluidSynth.AudioConfig.compatibility());
+    assertNotEquals(0, synth);
+
+    try {
+      assertNotEquals(FluidSynth.FLUID_FAILED, FluidSynth.loadSoundFont(synth, SOUND_FONT.getPath()));
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.noteOn(synth, 0, 60, 100));
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.noteOff(synth, 0, 60));
+
+      int[] audioInfo = new int[FluidSynth.AUDIO_INFO_SIZE];
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.getAudioInfo(synth, audioInfo));
+      assertTrue(audioInfo[FluidSynth.AUDIO_INFO_SAMPLE_RATE] > 0);
+
+      long[] stats = new long[FluidSynth.STATS_SIZE];
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.getStats(synth, stats));
+      assertTrue(stats[FluidSynth.STATS_POLYPHONY] > 0);
+      assertTrue(stats[FluidSynth.STATS_ACTIVE_VOICES] <= stats[FluidSynth.STATS_POLYPHONY]);
+
+      // both load the whole soundfont, but each counts only what it read itself.
+      long[] rendererInfo = new long[FluidSynth.MEMORY_INFO_SIZE];
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.getMemoryInfo(renderer, rendererInfo));
+      assertTrue(stats[FluidSynth.STATS_SOUND_FONT_BYTES_READ_TOTAL] > 0);
+      assertEquals(rendererInfo[FluidSynth.MEMORY_INFO_SOUND_FONT_BYTES_READ_TOTAL],
+          stats[FluidSynth.STATS_SOUND_FONT_BYTES_READ_TOTAL]);
+
+      int[] events = new int[2 * FluidSynth.EVENT_SIZE];
+      int[] offsetsMs = {0, 50};
+      FluidSynth.putEvent(events, 0, FluidSynth.EVENT_NOTE_ON, 0, 64, 100);
+      FluidSynth.putEvent(events, 1, FluidSynth.EVENT_NOTE_OFF, 0, 64, 0);
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.scheduleEvents(synth, events, offsetsMs, 2));
+
+      EventRing ring = new EventRing(8);
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.attachEventRing(synth, ring.getBuffer(), ring.getCapacity()));
+      assertEquals(FluidSynth.FLUID_FAILED, FluidSynth.attachEventRing(synth, ring.getBuffer(), ring.getCapacity()));
+      assertTrue(ring.offer(events, offsetsMs, 2));
+    } finally {
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.close(synth));
+    }
+  }
+
+  @Test
+  public void eventRing_cancelSilencesEveryPathAndTheNextOfferPlays() throws InterruptedException {
+    long synth = FluidSynth.create(FluidSynth.AudioConfig.compatibility());
+    assertNotEquals(0, synth);
+
+    try {
+      assertNotEquals(FluidSynth.FLUID_FAILED, FluidSynth.loadSoundFont(synth, SOUND_FONT.getPath()));
+
+      EventRing ring = new EventRing(8);
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.attachEventRing(synth, ring.getBuffer(), ring.getCapacity()));
+
+      // notes held long enough to still sound when they are checked.
+      int[] ringEvents = new int[2 * FluidSynth.EVENT_SIZE];
+      FluidSynth.putEvent(ringEvents, 0, FluidSynth.EVENT_NOTE_ON, 0, 60, 100);
+      FluidSynth.putEvent(ringEvents, 1, FluidSynth.EVENT_NOTE_OFF, 0, 60, 0);
+      int[] sequencerEvents = new int[2 * FluidSynth.EVENT_SIZE];
+      FluidSynth.putEvent(sequencerEvents, 0, FluidSynth.EVENT_NOTE_ON, 0, 67, 100);
+      FluidSynth.putEvent(sequencerEvents, 1, FluidSynth.EVENT_NOTE_OFF, 0, 67, 0);
+
+      // a playback on the ring, a later one on the sequencer as if the ring had been full, and a MIDI loop.
+      assertTrue(ring.offer(ringEvents, new int[]{0, 5000}, 2));
+      assertEquals(FluidSynth.FLUID_OK,
+          FluidSynth.scheduleEvents(synth, sequencerEvents, new int[]{300, 5000}, 2));
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.playMidi(synth, MIDDLE_C_MIDI, MIDDLE_C_MIDI.length, -1));
+      Thread.sleep(100);
+      assertTrue(getActiveVoices(synth) > 0);
+
+      // as MainActivity.cancelLivePlayback does once the sequencer has been used, with the sound cut so
+      // nothing is left releasing.
+      ring.cancel(true);
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.cancelScheduledEvents(synth, true));
+
+      // past the sequencer note and the next loop of the MIDI file.
+      Thread.sleep(600);
+      assertEquals(0, getActiveVoices(synth));
+      assertEquals(FluidSynth.FLUID_FAILED, FluidSynth.getMidiTick(synth));
+
+      long offeredNanos = System.nanoTime();
+      assertTrue(ring.offer(ringEvents, new int[]{0, 5000}, 2));
+      Thread.sleep(100);
+      assertTrue(getActiveVoices(synth) > 0);
+      assertTrue(FluidSynth.getLastOnsetNanos(synth) > offeredNanos);
+    } finally {
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.close(synth));
+    }
+  }
+
+  @Test
+  public void pausedSynth_dropsWhatIsStillQueued() throws InterruptedException {
+    long synth = FluidSynth.create(FluidSynth.AudioConfig.compatibility());
+    assertNotEquals(0, synth);
+
+    try {
+      assertNotEquals(FluidSynth.FLUID_FAILED, FluidSynth.loadSoundFont(synth, SOUND_FONT.getPath()));
+
+      EventRing ring = new EventRing(8);
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.attachEventRing(synth, ring.getBuffer(), ring.getCapacity()));
+
+      int[] events = new int[2 * FluidSynth.EVENT_SIZE];
+      FluidSynth.putEvent(events, 0, FluidSynth.EVENT_NOTE_ON, 0, 60, 100);
+      FluidSynth.putEvent(events, 1, FluidSynth.EVENT_NOTE_OFF, 0, 60, 0);
+
+      // both are still waiting when the driver goes away.
+      assertTrue(ring.offer(events, new int[]{300, 5000}, 2));
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.scheduleEvents(synth, events, new int[]{300, 5000}, 2));
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.pauseAudio(synth));
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.resumeAudio(synth));
+
+      // past the time they were due.
+      Thread.sleep(600);
+      assertEquals(0, getActiveVoices(synth));
+      assertEquals(0, FluidSynth.getLastOnsetNanos(synth));
+      assertEquals(0, ring.getPending());
+    } finally {
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.close(synth));
+    }
+  }
+
+  @Test
+  public void exportedSession_decodesToTheRenderedLength() throws IOException, UnsupportedAudioFileException {
+    File file = File.createTempFile("session", ".wav");
+    file.deleteOnExit();
+
+    Dyad dyad = new Dyad();
+    dyad.noteA = 60;
+    dyad.noteB = 67;
+    SessionExporter.ExerciseSource source = out -> Exercise.setMelodicInterval(out, dyad, MainActivity.NOTE_SPACING_MS);
+
+    int[] progress = new int[1];
+    long frames = SessionExporter.export(renderer, SAMPLE_RATE, source, 10, MainActivity.NOTE_SPACING_MS, file,
+        FluidSynth.EXPORT_TYPE_WAV, (exported, total) -> progress[0] = exported);
+    assertEquals(10, progress[0]);
+    assertTrue(frames >= 10 * 3 * MainActivity.NOTE_SPACING_MS * SAMPLE_RATE / 1000);
+
+    try (AudioInputStream stream = AudioSystem.getAudioInputStream(file)) {
+      AudioFormat format = stream.getFormat();
+      assertEquals(SAMPLE_RATE, (int) format.getSampleRate());
+      assertEquals(2, format.getChannels());
+      assertEquals(frames, stream.getFrameLength());
+
+      byte[] samples = new byte[(int) (frames * format.getFrameSize())];
+      int read = 0;
+      while (read < samples.length) {
+        int count = stream.read(samples, read, samples.length - read);
+        if (count < 0) break;
+        read += count;
+      }
+
+      int peak = 0;
+      for (int i = 0; i + 1 < read; i += 2) {
+        short sample = (short) ((samples[i] & 0xff) | (samples[i + 1] << 8));
+        peak = Math.max(peak, Math.abs(sample));
+      }
+      assertTrue(peak > 1000);
+    }
+  }
+
+  @Test
+  public void midiPlayer_playsAndRejectsGarbage() {
+    long synth = FluidSynth.create(FluidSynth.AudioConfig.compatibility());
+    assertNotEquals(0, synth);
+
+    try {
+      assertNotEquals(FluidSynth.FLUID_FAILED, FluidSynth.loadSoundFont(synth, SOUND_FONT.getPath()));
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.playMidi(synth, MIDDLE_C_MIDI, MIDDLE_C_MIDI.length, -1));
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.setMidiTempo(synth, 0.5));
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.seekMidi(synth, 0));
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.stopMidi(synth));
+
+      byte[] garbage = {1, 2, 3, 4};
+      assertEquals(FluidSynth.FLUID_FAILED, FluidSynth.playMidi(synth, garbage, garbage.length, 0));
+      assertEquals(FluidSynth.FLUID_FAILED, FluidSynth.stopMidi(synth));
+    } finally {
+      assertEquals(FluidSynth.FLUID_OK, FluidSynth.close(synth));
+    }
+  }
+
+  @Test
+  public void closedHandle_failsInsteadOfCrashing() {
+    long synth = FluidSynth.createRenderer(SAMPLE_RATE, false);
+    assertEquals(FluidSynth.FLUID_OK, FluidSynth.close(synth));
+
+    assertEquals(FluidSynth.FLUID_FAILED, FluidSynth.noteOn(synth, 0, 60, 100));
+    assertEquals(FluidSynth.FLUID_FAILED, FluidSynth.close(synth));
+  }
+
+  static private long getActiveVoices(long synth) {
+    long[] stats = new long[FluidSynth.STATS_SIZE];
+    assertEquals(FluidSynth.FLUID_OK, FluidSynth.getStats(synth, stats));
+    return stats[FluidSynth.STATS_ACTIVE_VOICES];
+  }
+}
@@ -0,0 +1,74 @@
+package dk.rmls.musicgap;
+
+import static dk.rmls.musicgap.MainActivity.Dyad;
+import static dk.rmls.musicgap.MainActivity.IntervalGameState;
+import static dk.rmls.musicgap.MainActivity.UIState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GameCoreBenchmark {
+
+  private int[] intervals;
+  private DyadGenerator dyadGenerator;
+  private AdaptiveScheduler scheduler;
+  private Dyad dyad;
+  private UIState uiState;
+  private IntervalGameState gameState;
+
+  @Setup
+  public void setup() {
+    intervals = IntStream.rangeClosed(-12, 12).toArray();
+
+    uiState = new UIState();
+    uiState.answerSet = AnswerSet.intervals();
+
+    MainActivity.IntervalSettings settings = new MainActivity.IntervalSettings();
+    settings.lowestNote = 21;
+    settings.highestNote = 108;
+    settings.intervals = intervals;
+    dyadGenerator = new DyadGenerator(settings, 1);
+    scheduler = new AdaptiveScheduler(new DyadGenerator(settings, 1), 1);
+    dyad = new Dyad();
+
+    gameState = new IntervalGameState();
+    gameState.correctGuesses = 17;
+    gameState.totalGuesses = 23;
+    gameState.intervalToGuess = MainActivity.generateRandomDyad(21, 108, intervals);
+  }
+
+  @Benchmark
+  public Dyad generateRandomDyad() {
+    return MainActivity.generateRandomDyad(21, 108, intervals);
+  }
+
+  @Benchmark
+  public Dyad dyadGeneratorNext() {
+    dyadGenerator.next(dyad);
+    return dyad;
+  }
+
+  // one question: draw, then record the answer.
+  @Benchmark
+  public Dyad adaptiveSchedulerNextRecord() {
+    scheduler.next(dyad);
+    scheduler.record(dyad.noteA, dyad.noteB, (dyad.noteA & 1) == 0);
+    return dyad;
+  }
+
+  @Benchmark
+  public String getScoreDisplayText() {
+    return MainActivity.getScoreDisplayText(uiState, gameState);
+  }
+}
@@ -0,0 +1,36 @@
+package dk.rmls.musicgap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IOUtilBenchmark {
+
+  // up to roughly the size of the bundled soundfont.
+  @Param({"8192", "1048576", "16777216"})
+  public int size;
+
+  private byte[] content;
+
+  @Setup
+  public void setup() {
+    content = new byte[size];
+  }
+
+  @Benchmark
+  public byte[] readNBytes() throws IOException {
+    return IOUtil.readNBytes(new ByteArrayInputStream(content), size);
+  }
+}
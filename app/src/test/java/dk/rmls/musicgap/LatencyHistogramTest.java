@@ -0,0 +1,34 @@
+package dk.rmls.musicgap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void buckets_keepValuesWithinPrecision() {
+    for (long value = 0; value < 1_000_000; value += 7) {
+      int bucket = LatencyHistogram.getBucket(value);
+      long highest = LatencyHistogram.getHighestValue(bucket);
+
+      assertTrue(highest >= value);
+      assertTrue(highest - value <= value / 32);
+      assertEquals(bucket, LatencyHistogram.getBucket(highest));
+    }
+  }
+
+  @Test
+  public void percentiles_matchRecordedValues() {
+    LatencyHistogram histogram = new LatencyHistogram("test");
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 100);
+    }
+
+    assertEquals(1000, histogram.getCount());
+    assertEquals(50_000, histogram.getValueAtPercentile(50), 50_000 / 32);
+    assertEquals(99_000, histogram.getValueAtPercentile(99), 99_000 / 32);
+    assertEquals(100_000, histogram.getValueAtPercentile(100));
+  }
+}